@@ -16,6 +16,7 @@ public class Main
 
     private final static int DEFAULT_WIDTH = 1600;
     private final static int DEFAULT_HEIGHT = 900;
+    private final static int LEVELS_OF_DETAIL = 4;
 
     private static GameObject testGameObject;
 
@@ -52,20 +53,20 @@ public class Main
                 }
             }
 
+            Mesh mesh;
             if (imageFile == null)
-                testGameObject = new GameObject
-                (
-                    args[0].substring(0, args[0].length()-4), 
-                    new Mesh(new File(args[0]), Color.GRAY, null, Quaternion.IDENTITY, scale, true), 
-                    Vector3.ZERO
-                );
+                mesh = new Mesh(new File(args[0]), Color.GRAY, null, Quaternion.IDENTITY, scale, true);
             else
-                testGameObject = new GameObject
-                (
-                    args[0].substring(0, args[0].length()-4), 
-                    new Mesh(new File(args[0]), imageFile, null, Quaternion.IDENTITY, scale, true), 
-                    Vector3.ZERO
-                );
+                mesh = new Mesh(new File(args[0]), imageFile, null, Quaternion.IDENTITY, scale, true);
+            // lets the renderer draw simplified versions of the mesh when it is far away
+            mesh.generateLevelsOfDetail(LEVELS_OF_DETAIL);
+
+            testGameObject = new GameObject
+            (
+                args[0].substring(0, args[0].length()-4), 
+                mesh, 
+                Vector3.ZERO
+            );
         }
         else
         {
@@ -128,32 +129,32 @@ class DemoCube extends Mesh
     {
         super(true);
 
-        Vector3 v1 = new Vector3(-50, -51, -50);
-        Vector3 v2 = new Vector3(50, -50, -50);
-        Vector3 v3 = new Vector3(50, -50, 50);
-        Vector3 v4 = new Vector3(-50, -50, 50);
+        int v1 = addVertex(new Vector3(-50, -51, -50));
+        int v2 = addVertex(new Vector3(50, -50, -50));
+        int v3 = addVertex(new Vector3(50, -50, 50));
+        int v4 = addVertex(new Vector3(-50, -50, 50));
 
-        Vector3 v5 = new Vector3(-50, 50, -50);
-        Vector3 v6 = new Vector3(50, 50, -50);
-        Vector3 v7 = new Vector3(50, 50, 50);
-        Vector3 v8 = new Vector3(-50, 50, 50);
+        int v5 = addVertex(new Vector3(-50, 50, -50));
+        int v6 = addVertex(new Vector3(50, 50, -50));
+        int v7 = addVertex(new Vector3(50, 50, 50));
+        int v8 = addVertex(new Vector3(-50, 50, 50));
 
-        getTriangles().add(new Triangle(this, v3, v1, v2, Color.LIGHT_GRAY));
-        getTriangles().add(new Triangle(this, v4, v1, v3, Color.LIGHT_GRAY));
+        addTriangle(v3, v1, v2, Color.LIGHT_GRAY);
+        addTriangle(v4, v1, v3, Color.LIGHT_GRAY);
 
-        getTriangles().add(new Triangle(this, v5, v7, v6, Color.LIGHT_GRAY));
-        getTriangles().add(new Triangle(this, v5, v8, v7, Color.LIGHT_GRAY));
+        addTriangle(v5, v7, v6, Color.LIGHT_GRAY);
+        addTriangle(v5, v8, v7, Color.LIGHT_GRAY);
 
-        getTriangles().add(new Triangle(this, v1, v6, v2, Color.LIGHT_GRAY));
-        getTriangles().add(new Triangle(this, v1, v5, v6, Color.LIGHT_GRAY));
+        addTriangle(v1, v6, v2, Color.LIGHT_GRAY);
+        addTriangle(v1, v5, v6, Color.LIGHT_GRAY);
 
-        getTriangles().add(new Triangle(this, v2, v7, v3, Color.LIGHT_GRAY));
-        getTriangles().add(new Triangle(this, v2, v6, v7, Color.LIGHT_GRAY));
+        addTriangle(v2, v7, v3, Color.LIGHT_GRAY);
+        addTriangle(v2, v6, v7, Color.LIGHT_GRAY);
 
-        getTriangles().add(new Triangle(this, v3, v8, v4, Color.LIGHT_GRAY));
-        getTriangles().add(new Triangle(this, v3, v7, v8, Color.LIGHT_GRAY));
+        addTriangle(v3, v8, v4, Color.LIGHT_GRAY);
+        addTriangle(v3, v7, v8, Color.LIGHT_GRAY);
 
-        getTriangles().add(new Triangle(this, v4, v5, v1, Color.LIGHT_GRAY));
-        getTriangles().add(new Triangle(this, v4, v8, v5, Color.LIGHT_GRAY));
+        addTriangle(v4, v5, v1, Color.LIGHT_GRAY);
+        addTriangle(v4, v8, v5, Color.LIGHT_GRAY);
     }
 }
\ No newline at end of file
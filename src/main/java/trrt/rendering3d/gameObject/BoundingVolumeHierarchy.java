@@ -0,0 +1,631 @@
+package trrt.rendering3d.gameObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+import trrt.rendering3d.primitives.Vector3;
+
+/**
+ * a dynamic bounding volume hierarchy over the bounding boxes of game objects,
+ * used to find the objects in a region of the scene without going through
+ * every object.
+ * <p>
+ * Each object is a leaf of a binary tree of axis aligned boxes, where every
+ * box contains the boxes of its two children. The leaves store a slightly
+ * enlarged copy of the object's bounds, so an object which moves by a small
+ * amount is still inside its leaf and the tree does not change. When the
+ * {@link Transform} of an object moves it out of its leaf, the leaf is taken
+ * out of the tree and inserted again.
+ * <p>
+ * The nodes are stored in flat arrays, and a node is referred to by its index
+ * in those arrays.
+ */
+public class BoundingVolumeHierarchy {
+	// index used for a missing node, like the parent of the root.
+	private static final int NULL_NODE = -1;
+
+	// how much the bounds of a leaf are enlarged, as a fraction of the
+	// object's bounding sphere radius.
+	private static final double LEAF_MARGIN = 0.1;
+
+	// the boxes of the nodes, six doubles (min x, y, z, max x, y, z) per node.
+	private double[] nodeBounds;
+
+	// the parent and children of each node. Leaves have no children.
+	private int[] nodeParent;
+	private int[] nodeLeft;
+	private int[] nodeRight;
+
+	// the game object of each leaf, null for inner nodes.
+	private GameObject[] nodeObjects;
+
+	private int root;
+	private int nodeCapacity;
+	private int nodeCount;
+
+	// the first unused node. Unused nodes are linked through nodeLeft.
+	private int freeNode;
+
+	// the number of objects inserted so far, used to order query results.
+	private long insertions;
+
+	// stack used by the queries to walk the tree without recursion.
+	private int[] stack;
+
+	// the most results a query sorts with an insertion sort.
+	private static final int MAX_INSERTION_SORT = 64;
+
+	// the two arrays more results are merge sorted in. They are kept between
+	// queries, so a query made every frame doesn't allocate.
+	private GameObject[] sortBuffer;
+	private GameObject[] sortScratch;
+
+	public BoundingVolumeHierarchy() {
+		root = NULL_NODE;
+		nodeCapacity = 0;
+		nodeCount = 0;
+		freeNode = NULL_NODE;
+		nodeBounds = new double[0];
+		nodeParent = new int[0];
+		nodeLeft = new int[0];
+		nodeRight = new int[0];
+		nodeObjects = new GameObject[0];
+		stack = new int[64];
+		sortBuffer = new GameObject[0];
+		sortScratch = new GameObject[0];
+		growNodes(16);
+	}
+
+	/**
+	 * adds a game object with a mesh to the hierarchy. The object is kept up to
+	 * date through its {@link Transform} until it is removed.
+	 *
+	 * @param gameObject the game object
+	 */
+	public void insert(GameObject gameObject) {
+		if (gameObject.getMesh() == null) {
+			System.err.println(
+					"WARNING at: BoundingVolumeHierarchy/insert() method: \n\tGameObject has no mesh. Object not added");
+			return;
+		}
+		if (gameObject.sceneIndex != null)
+			gameObject.sceneIndex.remove(gameObject);
+
+		int leaf = allocateNode();
+		nodeObjects[leaf] = gameObject;
+		setEnlargedBounds(leaf, gameObject);
+		insertLeaf(leaf);
+
+		gameObject.sceneIndex = this;
+		gameObject.sceneIndexNode = leaf;
+		gameObject.sceneIndexOrder = insertions++;
+	}
+
+	/**
+	 * removes a game object from the hierarchy.
+	 *
+	 * @param gameObject the game object
+	 */
+	public void remove(GameObject gameObject) {
+		if (gameObject.sceneIndex != this)
+			return;
+		int leaf = gameObject.sceneIndexNode;
+		removeLeaf(leaf);
+		freeNodeAt(leaf);
+		gameObject.sceneIndex = null;
+		gameObject.sceneIndexNode = NULL_NODE;
+	}
+
+	/**
+	 * updates the leaf of a game object after it has moved. The tree is only
+	 * changed when the object moved out of the enlarged bounds of its leaf.
+	 *
+	 * @param gameObject the game object
+	 */
+	public void update(GameObject gameObject) {
+		if (gameObject.sceneIndex != this)
+			return;
+		int leaf = gameObject.sceneIndexNode;
+		Vector3 min = gameObject.getBoundsMin();
+		Vector3 max = gameObject.getBoundsMax();
+		int i = leaf * 6;
+		if (min.x >= nodeBounds[i] && min.y >= nodeBounds[i + 1]
+				&& min.z >= nodeBounds[i + 2] && max.x <= nodeBounds[i + 3]
+				&& max.y <= nodeBounds[i + 4] && max.z <= nodeBounds[i + 5])
+			return;
+
+		removeLeaf(leaf);
+		setEnlargedBounds(leaf, gameObject);
+		insertLeaf(leaf);
+	}
+
+	/**
+	 * finds the game objects whose bounds may be inside a convex region made
+	 * of planes, like a camera's view frustum. Objects are skipped when their
+	 * bounds are completely behind one of the planes, so some of the results
+	 * may be just outside the region.
+	 *
+	 * @param planeValues the a, b, c and d values of
+	 *                    {@code ax + by + cz + d = 0} for each plane, four per
+	 *                    plane, where {@code ax + by + cz + d} is positive
+	 *                    inside the region
+	 * @param planeCount  the number of planes
+	 * @param results     the list the objects are added to, in the order they
+	 *                    were inserted
+	 */
+	public void queryPlanes(double[] planeValues, int planeCount,
+			List<GameObject> results) {
+		int start = results.size();
+		int stackSize = push(root, 0);
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (!boxInsidePlanes(node, planeValues, planeCount))
+				continue;
+			if (nodeObjects[node] != null) {
+				results.add(nodeObjects[node]);
+			} else {
+				stackSize = push(nodeLeft[node], stackSize);
+				stackSize = push(nodeRight[node], stackSize);
+			}
+		}
+		sortByInsertion(results, start);
+	}
+
+	/**
+	 * finds the game objects whose bounds overlap a box.
+	 *
+	 * @param min     the corner of the box with the smallest coordinates
+	 * @param max     the corner of the box with the largest coordinates
+	 * @param results the list the objects are added to, in the order they were
+	 *                inserted
+	 */
+	public void queryBox(Vector3 min, Vector3 max, List<GameObject> results) {
+		int start = results.size();
+		int stackSize = push(root, 0);
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			int i = node * 6;
+			if (max.x < nodeBounds[i] || max.y < nodeBounds[i + 1]
+					|| max.z < nodeBounds[i + 2] || min.x > nodeBounds[i + 3]
+					|| min.y > nodeBounds[i + 4] || min.z > nodeBounds[i + 5])
+				continue;
+			if (nodeObjects[node] != null) {
+				if (overlapsBox(nodeObjects[node], min, max))
+					results.add(nodeObjects[node]);
+			} else {
+				stackSize = push(nodeLeft[node], stackSize);
+				stackSize = push(nodeRight[node], stackSize);
+			}
+		}
+		sortByInsertion(results, start);
+	}
+
+	/**
+	 * finds the game objects whose bounds are within a distance of a point.
+	 *
+	 * @param center  the point
+	 * @param radius  the distance
+	 * @param results the list the objects are added to, in the order they were
+	 *                inserted
+	 */
+	public void querySphere(Vector3 center, double radius,
+			List<GameObject> results) {
+		int start = results.size();
+		int stackSize = push(root, 0);
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			int i = node * 6;
+			if (distanceSquaredToBox(center, nodeBounds[i], nodeBounds[i + 1],
+					nodeBounds[i + 2], nodeBounds[i + 3], nodeBounds[i + 4],
+					nodeBounds[i + 5]) > radius * radius)
+				continue;
+			if (nodeObjects[node] != null) {
+				Vector3 min = nodeObjects[node].getBoundsMin();
+				Vector3 max = nodeObjects[node].getBoundsMax();
+				if (distanceSquaredToBox(center, min.x, min.y, min.z, max.x,
+						max.y, max.z) <= radius * radius)
+					results.add(nodeObjects[node]);
+			} else {
+				stackSize = push(nodeLeft[node], stackSize);
+				stackSize = push(nodeRight[node], stackSize);
+			}
+		}
+		sortByInsertion(results, start);
+	}
+
+	/**
+	 * finds the game objects whose bounds are hit by a ray.
+	 *
+	 * @param origin      the start of the ray
+	 * @param direction   the direction of the ray, which doesn't have to be
+	 *                    normalized
+	 * @param maxDistance how far along the ray to look, in multiples of
+	 *                    {@code direction}
+	 * @param results     the list the objects are added to, nearest first
+	 */
+	public void queryRay(Vector3 origin, Vector3 direction, double maxDistance,
+			List<GameObject> results) {
+		int start = results.size();
+		double invX = 1 / direction.x;
+		double invY = 1 / direction.y;
+		double invZ = 1 / direction.z;
+		int stackSize = push(root, 0);
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			int i = node * 6;
+			if (rayHitDistance(origin, invX, invY, invZ, maxDistance,
+					nodeBounds[i], nodeBounds[i + 1], nodeBounds[i + 2],
+					nodeBounds[i + 3], nodeBounds[i + 4],
+					nodeBounds[i + 5]) < 0)
+				continue;
+			if (nodeObjects[node] != null) {
+				Vector3 min = nodeObjects[node].getBoundsMin();
+				Vector3 max = nodeObjects[node].getBoundsMax();
+				if (rayHitDistance(origin, invX, invY, invZ, maxDistance, min.x,
+						min.y, min.z, max.x, max.y, max.z) >= 0)
+					results.add(nodeObjects[node]);
+			} else {
+				stackSize = push(nodeLeft[node], stackSize);
+				stackSize = push(nodeRight[node], stackSize);
+			}
+		}
+
+		// sorts the hits by how far along the ray they are, with an insertion
+		// sort since a ray usually only hits a few objects.
+		List<GameObject> hits = results.subList(start, results.size());
+		double[] distances = new double[hits.size()];
+		for (int i = 0; i < hits.size(); i++) {
+			GameObject hit = hits.get(i);
+			Vector3 min = hit.getBoundsMin();
+			Vector3 max = hit.getBoundsMax();
+			double distance = rayHitDistance(origin, invX, invY, invZ,
+					maxDistance, min.x, min.y, min.z, max.x, max.y, max.z);
+			int j = i;
+			while (j > 0 && distances[j - 1] > distance) {
+				distances[j] = distances[j - 1];
+				hits.set(j, hits.get(j - 1));
+				j--;
+			}
+			distances[j] = distance;
+			hits.set(j, hit);
+		}
+	}
+
+	/** @return the number of game objects in the hierarchy */
+	public int size() {
+		return (nodeCount + 1) / 2;
+	}
+
+	// #region tree operations
+
+	// adds a leaf into the tree next to the node where it increases the
+	// surface area of the tree the least.
+	private void insertLeaf(int leaf) {
+		if (root == NULL_NODE) {
+			root = leaf;
+			nodeParent[leaf] = NULL_NODE;
+			return;
+		}
+
+		int l = leaf * 6;
+		int node = root;
+		while (nodeObjects[node] == null) {
+			double area = surfaceArea(node);
+			double combinedArea = combinedSurfaceArea(node, leaf);
+
+			// the cost of making a new parent for this node and the leaf, and
+			// the cost added to every node above a child the leaf goes into.
+			double cost = 2 * combinedArea;
+			double inheritanceCost = 2 * (combinedArea - area);
+
+			double leftCost = descendCost(nodeLeft[node], leaf)
+					+ inheritanceCost;
+			double rightCost = descendCost(nodeRight[node], leaf)
+					+ inheritanceCost;
+			if (cost < leftCost && cost < rightCost)
+				break;
+			node = (leftCost < rightCost) ? nodeLeft[node] : nodeRight[node];
+		}
+
+		// makes a new parent for the node and the leaf.
+		int oldParent = nodeParent[node];
+		int newParent = allocateNode();
+		nodeParent[newParent] = oldParent;
+		nodeObjects[newParent] = null;
+		nodeLeft[newParent] = node;
+		nodeRight[newParent] = leaf;
+		nodeParent[node] = newParent;
+		nodeParent[leaf] = newParent;
+		int p = newParent * 6;
+		int n = node * 6;
+		for (int i = 0; i < 3; i++) {
+			nodeBounds[p + i] = Math.min(nodeBounds[n + i], nodeBounds[l + i]);
+			nodeBounds[p + i + 3] = Math.max(nodeBounds[n + i + 3],
+					nodeBounds[l + i + 3]);
+		}
+		if (oldParent == NULL_NODE) {
+			root = newParent;
+		} else if (nodeLeft[oldParent] == node) {
+			nodeLeft[oldParent] = newParent;
+		} else {
+			nodeRight[oldParent] = newParent;
+		}
+
+		refitAncestors(oldParent);
+	}
+
+	// takes a leaf out of the tree. Its parent is freed and replaced by the
+	// leaf's sibling.
+	private void removeLeaf(int leaf) {
+		if (leaf == root) {
+			root = NULL_NODE;
+			return;
+		}
+		int parent = nodeParent[leaf];
+		int grandParent = nodeParent[parent];
+		int sibling = (nodeLeft[parent] == leaf) ? nodeRight[parent]
+				: nodeLeft[parent];
+
+		if (grandParent == NULL_NODE) {
+			root = sibling;
+			nodeParent[sibling] = NULL_NODE;
+		} else {
+			if (nodeLeft[grandParent] == parent)
+				nodeLeft[grandParent] = sibling;
+			else
+				nodeRight[grandParent] = sibling;
+			nodeParent[sibling] = grandParent;
+		}
+		freeNodeAt(parent);
+		refitAncestors(grandParent);
+	}
+
+	// recalculates the boxes of a node and every node above it.
+	private void refitAncestors(int node) {
+		while (node != NULL_NODE) {
+			int b = node * 6;
+			int left = nodeLeft[node] * 6;
+			int right = nodeRight[node] * 6;
+			for (int i = 0; i < 3; i++) {
+				nodeBounds[b + i] = Math.min(nodeBounds[left + i],
+						nodeBounds[right + i]);
+				nodeBounds[b + i + 3] = Math.max(nodeBounds[left + i + 3],
+						nodeBounds[right + i + 3]);
+			}
+			node = nodeParent[node];
+		}
+	}
+
+	// the cost of putting the leaf somewhere under (or next to) a child.
+	private double descendCost(int child, int leaf) {
+		if (nodeObjects[child] != null)
+			return combinedSurfaceArea(child, leaf);
+		return combinedSurfaceArea(child, leaf) - surfaceArea(child);
+	}
+
+	// sets the bounds of a leaf to the bounds of the game object, enlarged on
+	// every side.
+	private void setEnlargedBounds(int leaf, GameObject gameObject) {
+		Vector3 min = gameObject.getBoundsMin();
+		Vector3 max = gameObject.getBoundsMax();
+		double margin = gameObject.getBoundingSphereRadius() * LEAF_MARGIN;
+		int i = leaf * 6;
+		nodeBounds[i] = min.x - margin;
+		nodeBounds[i + 1] = min.y - margin;
+		nodeBounds[i + 2] = min.z - margin;
+		nodeBounds[i + 3] = max.x + margin;
+		nodeBounds[i + 4] = max.y + margin;
+		nodeBounds[i + 5] = max.z + margin;
+	}
+
+	// #endregion
+
+	// #region node storage
+
+	private int allocateNode() {
+		if (freeNode == NULL_NODE)
+			growNodes(nodeCapacity * 2);
+		int node = freeNode;
+		freeNode = nodeLeft[node];
+		nodeParent[node] = NULL_NODE;
+		nodeLeft[node] = NULL_NODE;
+		nodeRight[node] = NULL_NODE;
+		nodeObjects[node] = null;
+		nodeCount++;
+		return node;
+	}
+
+	private void freeNodeAt(int node) {
+		nodeObjects[node] = null;
+		nodeLeft[node] = freeNode;
+		freeNode = node;
+		nodeCount--;
+	}
+
+	// grows the node arrays and links the new nodes into the free list.
+	private void growNodes(int capacity) {
+		nodeBounds = Arrays.copyOf(nodeBounds, capacity * 6);
+		nodeParent = Arrays.copyOf(nodeParent, capacity);
+		nodeLeft = Arrays.copyOf(nodeLeft, capacity);
+		nodeRight = Arrays.copyOf(nodeRight, capacity);
+		nodeObjects = Arrays.copyOf(nodeObjects, capacity);
+		for (int i = capacity - 1; i >= nodeCapacity; i--) {
+			nodeLeft[i] = freeNode;
+			freeNode = i;
+		}
+		nodeCapacity = capacity;
+	}
+
+	// pushes a node onto the query stack, growing it if needed, and returns
+	// the new stack size.
+	private int push(int node, int stackSize) {
+		if (node == NULL_NODE)
+			return stackSize;
+		if (stackSize == stack.length)
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		stack[stackSize] = node;
+		return stackSize + 1;
+	}
+
+	// #endregion
+
+	// #region geometry
+
+	private double surfaceArea(int node) {
+		int i = node * 6;
+		double x = nodeBounds[i + 3] - nodeBounds[i];
+		double y = nodeBounds[i + 4] - nodeBounds[i + 1];
+		double z = nodeBounds[i + 5] - nodeBounds[i + 2];
+		return 2 * (x * y + y * z + z * x);
+	}
+
+	// the surface area of the box containing both nodes.
+	private double combinedSurfaceArea(int node1, int node2) {
+		int a = node1 * 6;
+		int b = node2 * 6;
+		double x = Math.max(nodeBounds[a + 3], nodeBounds[b + 3])
+				- Math.min(nodeBounds[a], nodeBounds[b]);
+		double y = Math.max(nodeBounds[a + 4], nodeBounds[b + 4])
+				- Math.min(nodeBounds[a + 1], nodeBounds[b + 1]);
+		double z = Math.max(nodeBounds[a + 5], nodeBounds[b + 5])
+				- Math.min(nodeBounds[a + 2], nodeBounds[b + 2]);
+		return 2 * (x * y + y * z + z * x);
+	}
+
+	// is any part of the node's box in front of all the planes?
+	private boolean boxInsidePlanes(int node, double[] planeValues,
+			int planeCount) {
+		int b = node * 6;
+		for (int i = 0; i < planeCount * 4; i += 4) {
+			double a = planeValues[i];
+			double c = planeValues[i + 1];
+			double e = planeValues[i + 2];
+			// the corner of the box furthest in front of the plane.
+			if (a * nodeBounds[b + ((a > 0) ? 3 : 0)]
+					+ c * nodeBounds[b + ((c > 0) ? 4 : 1)]
+					+ e * nodeBounds[b + ((e > 0) ? 5 : 2)]
+					+ planeValues[i + 3] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean overlapsBox(GameObject gameObject, Vector3 min,
+			Vector3 max) {
+		Vector3 objectMin = gameObject.getBoundsMin();
+		Vector3 objectMax = gameObject.getBoundsMax();
+		return max.x >= objectMin.x && max.y >= objectMin.y
+				&& max.z >= objectMin.z && min.x <= objectMax.x
+				&& min.y <= objectMax.y && min.z <= objectMax.z;
+	}
+
+	private static double distanceSquaredToBox(Vector3 point, double minX,
+			double minY, double minZ, double maxX, double maxY, double maxZ) {
+		double x = Math.max(0, Math.max(minX - point.x, point.x - maxX));
+		double y = Math.max(0, Math.max(minY - point.y, point.y - maxY));
+		double z = Math.max(0, Math.max(minZ - point.z, point.z - maxZ));
+		return x * x + y * y + z * z;
+	}
+
+	// returns how far along the ray it enters the box (0 if it starts inside
+	// it), or -1 if it misses the box within maxDistance. Uses the slab
+	// method. An axis the ray is parallel to has an infinite inverse, which
+	// would give NaN for an origin exactly on the slab, so the ray misses if
+	// the origin is outside that slab and the axis is skipped otherwise.
+	private static double rayHitDistance(Vector3 origin, double invX,
+			double invY, double invZ, double maxDistance, double minX,
+			double minY, double minZ, double maxX, double maxY, double maxZ) {
+		double near = 0;
+		double far = maxDistance;
+		if (Double.isInfinite(invX)) {
+			if (origin.x < minX || origin.x > maxX)
+				return -1;
+		} else {
+			double t1 = (minX - origin.x) * invX;
+			double t2 = (maxX - origin.x) * invX;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		if (Double.isInfinite(invY)) {
+			if (origin.y < minY || origin.y > maxY)
+				return -1;
+		} else {
+			double t1 = (minY - origin.y) * invY;
+			double t2 = (maxY - origin.y) * invY;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		if (Double.isInfinite(invZ)) {
+			if (origin.z < minZ || origin.z > maxZ)
+				return -1;
+		} else {
+			double t1 = (minZ - origin.z) * invZ;
+			double t2 = (maxZ - origin.z) * invZ;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+
+		if (near > far)
+			return -1;
+		return near;
+	}
+
+	// #endregion
+
+	// sorts the results added by a query by when they were inserted. A few
+	// results are sorted in place with an insertion sort. More are copied
+	// into sortBuffer and merge sorted, since List.sort copies them into a new
+	// array, which a query made every frame shouldn't do.
+	private void sortByInsertion(List<GameObject> results, int start) {
+		int end = results.size();
+		int count = end - start;
+		if (count <= MAX_INSERTION_SORT) {
+			for (int i = start + 1; i < end; i++) {
+				GameObject gameObject = results.get(i);
+				int j = i - 1;
+				while (j >= start && results.get(j).sceneIndexOrder
+						> gameObject.sceneIndexOrder) {
+					results.set(j + 1, results.get(j));
+					j--;
+				}
+				results.set(j + 1, gameObject);
+			}
+			return;
+		}
+
+		if (sortBuffer.length < count) {
+			sortBuffer = new GameObject[count * 2];
+			sortScratch = new GameObject[count * 2];
+		}
+		GameObject[] from = sortBuffer;
+		GameObject[] to = sortScratch;
+		for (int i = 0; i < count; i++) {
+			from[i] = results.get(start + i);
+		}
+		// a bottom up merge sort, merging runs of width objects into runs of
+		// twice that width until one run is left.
+		for (int width = 1; width < count; width *= 2) {
+			for (int left = 0; left < count; left += 2 * width) {
+				int middle = Math.min(left + width, count);
+				int right = Math.min(left + 2 * width, count);
+				int a = left;
+				int b = middle;
+				for (int i = left; i < right; i++) {
+					to[i] = (b == right || (a < middle
+							&& from[a].sceneIndexOrder
+									< from[b].sceneIndexOrder)) ? from[a++]
+											: from[b++];
+				}
+			}
+			GameObject[] swap = from;
+			from = to;
+			to = swap;
+		}
+		for (int i = 0; i < count; i++) {
+			results.set(start + i, from[i]);
+		}
+		// the buffers shouldn't keep removed objects alive.
+		Arrays.fill(sortBuffer, 0, count, null);
+		Arrays.fill(sortScratch, 0, count, null);
+	}
+}
@@ -1,10 +1,19 @@
 package trrt.rendering3d.gameObject;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import trrt.rendering3d.primitives.*;
+import trrt.rendering3d.graphics.Lighting;
+import trrt.rendering3d.graphics.PointLight;
 import trrt.rendering3d.Main;
 
+/**
+ * an object in the scene: a mesh placed in the world by a transform. The mesh stays in its own local space, so the same mesh
+ * can be shared by any number of game objects, each with its own position and rotation.
+ */
 public class GameObject implements Serializable
 {  
     private static final long serialVersionUID = 1;
@@ -18,6 +27,41 @@ public class GameObject implements Serializable
     //name
     private String name;
 
+    //the scene index the object is in, the node of the object in it, and when it was added. Set by BoundingVolumeHierarchy.
+    transient BoundingVolumeHierarchy sceneIndex;
+    transient int sceneIndexNode;
+    transient long sceneIndexOrder;
+
+    //the level of detail of the mesh that was drawn last, used by the renderer to avoid switching levels back and forth.
+    private int levelOfDetail;
+
+    //what the object is lit by: the lighting and the point lights which reach it, with the version of each when they were
+    //given to setLights. litState is increased whenever they change, the object rotates, or it moves while point lights reach it.
+    private transient Lighting lighting;
+    private transient int lightingVersion;
+    private transient ArrayList<PointLight> lights;
+    private transient int[] lightVersions;
+    private transient int litState;
+
+    //the colors of the triangles of each level of detail with lighting, the brightness the lighting added to them (used for
+    //textured triangles, whose colors come from the texture), and the lit state each level was calculated in. A level is
+    //calculated again when it is drawn in a newer lit state, into the arrays it used before.
+    private transient int[][] litTriangleColors;
+    private transient int[][] litTriangleBrightness;
+    private transient int[] litTriangleStates;
+
+    //the same for smooth shading, which lights every vertex instead of every triangle. Only the brightness is stored, since
+    //the triangles around a vertex can have different colors.
+    private transient int[][] litVertexBrightness;
+    private transient int[] litVertexStates;
+
+    //the bounding box corners and bounding sphere center in world space. They are rebuilt when they are asked for after the
+    //object moved or rotated, so the renderer can test a still object against the camera every frame without creating vectors.
+    private transient Vector3 worldBoundsMin;
+    private transient Vector3 worldBoundsMax;
+    private transient Vector3 worldSphereCenter;
+    private transient boolean worldBoundsValid;
+
     /**
      * creates a game object with the given mesh and transform components 
      * @param nameIn name of the game object
@@ -29,6 +73,258 @@ public class GameObject implements Serializable
         mesh = meshIn;
         name = nameIn;
         transform = new Transform((transformPos == null)? new Vector3(0, 0, 0) : transformPos);
+        transform.setGameObject(this);
+    }
+
+    /**
+     * updates the object in the scene index it was added to, if any. Called by the transform whenever the object moves.
+     */
+    void boundsChanged()
+    {
+        worldBoundsValid = false;
+        if (lights != null && lights.size() > 0)
+            litState++;
+        if (sceneIndex != null)
+            sceneIndex.update(this);
+    }
+
+    /**
+     * marks the lit triangle colors as out of date, since they depend on the rotation. Called by the transform whenever the
+     * object rotates.
+     */
+    void rotationChanged()
+    {
+        litState++;
+    }
+
+    /**
+     * sets what the object is lit by. Nothing has to be calculated again if they are the same as last time and didn't change.
+     * @param lightingIn the lighting, or null for none
+     * @param lightsIn the point lights which reach the object
+     */
+    public void setLights(Lighting lightingIn, List<PointLight> lightsIn)
+    {
+        if (lights == null)
+        {
+            lights = new ArrayList<PointLight>();
+            lightVersions = new int[4];
+        }
+        boolean changed = lightingIn != lighting || (lighting != null && lighting.getVersion() != lightingVersion) 
+            || lightsIn.size() != lights.size();
+        for (int i = 0; i < lightsIn.size() && !changed; i++)
+            changed = lightsIn.get(i) != lights.get(i) || lightsIn.get(i).getVersion() != lightVersions[i];
+        if (!changed)
+            return;
+
+        lighting = lightingIn;
+        lightingVersion = (lighting == null)? 0 : lighting.getVersion();
+        lights.clear();
+        if (lightVersions.length < lightsIn.size())
+            lightVersions = new int[lightsIn.size()];
+        for (int i = 0; i < lightsIn.size(); i++)
+        {
+            lights.add(lightsIn.get(i));
+            lightVersions[i] = lightsIn.get(i).getVersion();
+        }
+        litState++;
+    }
+
+    // does a level of detail have to be lit at all?
+    private boolean needsLighting(int level)
+    {
+        return mesh.getLevelOfDetail(level).isShaded() && (lighting != null || (lights != null && lights.size() > 0));
+    }
+
+    /**
+     * @param level the level of detail of the mesh
+     * @return true if the lit colors of the triangles of that level of detail are up to date, or don't need lighting at all
+     */
+    public boolean isLit(int level)
+    {
+        if (!needsLighting(level))
+            return true;
+        return litTriangleStates != null && litTriangleStates.length == mesh.getLevelOfDetailCount() 
+            && litTriangleStates[level] == litState;
+    }
+
+    /**
+     * makes room for the lit colors of a level of detail and marks them as up to date, before they are calculated with
+     * {@link #lightTriangles(int, int, int)}. The array used last time is reused if there is one.
+     * @param level the level of detail of the mesh
+     */
+    public void prepareLighting(int level)
+    {
+        int levels = mesh.getLevelOfDetailCount();
+        if (litTriangleColors == null || litTriangleColors.length != levels)
+        {
+            litTriangleColors = new int[levels][];
+            litTriangleBrightness = new int[levels][];
+            litTriangleStates = new int[levels];
+            Arrays.fill(litTriangleStates, -1);
+        }
+        if (litTriangleColors[level] == null)
+        {
+            litTriangleColors[level] = new int[mesh.getLevelOfDetail(level).getTriangleCount()];
+            litTriangleBrightness[level] = new int[litTriangleColors[level].length];
+        }
+        litTriangleStates[level] = litState;
+    }
+
+    /**
+     * calculates the lit colors of a range of triangles of a level of detail, after {@link #prepareLighting(int)}. The
+     * brightness from the lighting and from every point light is added up and applied to the color once. Ranges which don't
+     * overlap can be calculated at the same time.
+     * @param level the level of detail of the mesh
+     * @param firstTriangle the first triangle to light
+     * @param endTriangle one past the last triangle to light
+     */
+    public void lightTriangles(int level, int firstTriangle, int endTriangle)
+    {
+        // the normals and centers are moved into world space, where the lights are.
+        Mesh levelMesh = mesh.getLevelOfDetail(level);
+        Matrix3x3 r = transform.getRotationMatrix();
+        Vector3 p = transform.getPosition();
+        double[] normals = levelMesh.getTriangleNormals();
+        double[] centers = levelMesh.getTriangleCenters();
+        int[] colors = levelMesh.getTriangleColors();
+        int[] litColors = litTriangleColors[level];
+        int[] brightness = litTriangleBrightness[level];
+        for (int i = firstTriangle; i < endTriangle; i++)
+        {
+            brightness[i] = calculateBrightness(normals, centers, i * 3, r, p);
+            litColors[i] = Lighting.brighten(colors[i], brightness[i]);
+        }
+    }
+
+    // adds up the brightness from the lighting and from every point light of a surface, given its normal and position in
+    // local space at index in the two arrays.
+    private int calculateBrightness(double[] normals, double[] positions, int index, Matrix3x3 r, Vector3 p)
+    {
+        double x = normals[index];
+        double y = normals[index + 1];
+        double z = normals[index + 2];
+        double normalX = r.R1C1 * x + r.R1C2 * y + r.R1C3 * z;
+        double normalY = r.R2C1 * x + r.R2C2 * y + r.R2C3 * z;
+        double normalZ = r.R3C1 * x + r.R3C2 * y + r.R3C3 * z;
+        int brightness = (lighting == null)? 0 : lighting.calculateBrightness(normalX, normalY, normalZ);
+        int lightCount = (lights == null)? 0 : lights.size();
+        if (lightCount > 0)
+        {
+            x = positions[index];
+            y = positions[index + 1];
+            z = positions[index + 2];
+            double positionX = r.R1C1 * x + r.R1C2 * y + r.R1C3 * z + p.x;
+            double positionY = r.R2C1 * x + r.R2C2 * y + r.R2C3 * z + p.y;
+            double positionZ = r.R3C1 * x + r.R3C2 * y + r.R3C3 * z + p.z;
+            for (int j = 0; j < lightCount; j++)
+                brightness += lights.get(j).calculateBrightness(positionX, positionY, positionZ, normalX, normalY, normalZ);
+        }
+        return brightness;
+    }
+
+    /**
+     * returns the colors of the triangles of a level of detail of the mesh, lit by what was given to
+     * {@link #setLights(Lighting, List)} as seen with the rotation of the object. The colors are calculated once and reused
+     * until the object rotates or the lights change.
+     * @param level the level of detail of the mesh
+     * @return the packed rgb color of every triangle of that level of detail
+     */
+    public int[] getLitTriangleColors(int level)
+    {
+        if (!needsLighting(level))
+            return mesh.getLevelOfDetail(level).getTriangleColors();
+
+        if (!isLit(level))
+        {
+            prepareLighting(level);
+            lightTriangles(level, 0, mesh.getLevelOfDetail(level).getTriangleCount());
+        }
+        return litTriangleColors[level];
+    }
+
+    /**
+     * returns how much brighter the lighting makes each triangle of a level of detail of the mesh. It is calculated together
+     * with {@link #getLitTriangleColors(int)}.
+     * @param level the level of detail of the mesh
+     * @return the amount added to each color channel of every triangle of that level of detail, or null if the level isn't
+     * lit
+     */
+    public int[] getLitTriangleBrightness(int level)
+    {
+        if (!needsLighting(level))
+            return null;
+
+        getLitTriangleColors(level);
+        return litTriangleBrightness[level];
+    }
+
+    /**
+     * @param level the level of detail of the mesh
+     * @return true if the brightness of the vertices of that level of detail is up to date, or doesn't need lighting at all
+     */
+    public boolean isVertexLit(int level)
+    {
+        if (!needsLighting(level))
+            return true;
+        return litVertexStates != null && litVertexStates.length == mesh.getLevelOfDetailCount() 
+            && litVertexStates[level] == litState;
+    }
+
+    /**
+     * makes room for the brightness of the vertices of a level of detail and marks it as up to date, before it is calculated
+     * with {@link #lightVertices(int, int, int)}. The array used last time is reused if there is one.
+     * @param level the level of detail of the mesh
+     */
+    public void prepareVertexLighting(int level)
+    {
+        int levels = mesh.getLevelOfDetailCount();
+        if (litVertexBrightness == null || litVertexBrightness.length != levels)
+        {
+            litVertexBrightness = new int[levels][];
+            litVertexStates = new int[levels];
+            Arrays.fill(litVertexStates, -1);
+        }
+        if (litVertexBrightness[level] == null)
+            litVertexBrightness[level] = new int[mesh.getLevelOfDetail(level).getVertexCount()];
+        litVertexStates[level] = litState;
+    }
+
+    /**
+     * calculates the brightness of a range of vertices of a level of detail, after {@link #prepareVertexLighting(int)}, from
+     * their vertex normals. Ranges which don't overlap can be calculated at the same time.
+     * @param level the level of detail of the mesh
+     * @param firstVertex the first vertex to light
+     * @param endVertex one past the last vertex to light
+     */
+    public void lightVertices(int level, int firstVertex, int endVertex)
+    {
+        Mesh levelMesh = mesh.getLevelOfDetail(level);
+        Matrix3x3 r = transform.getRotationMatrix();
+        Vector3 p = transform.getPosition();
+        double[] normals = levelMesh.getVertexNormals();
+        double[] positions = levelMesh.getVertexPositions();
+        int[] brightness = litVertexBrightness[level];
+        for (int i = firstVertex; i < endVertex; i++)
+            brightness[i] = calculateBrightness(normals, positions, i * 3, r, p);
+    }
+
+    /**
+     * returns how much brighter the lighting makes each vertex of a level of detail of the mesh, for smooth shading. Like
+     * {@link #getLitTriangleColors(int)}, it is calculated once and reused until the object rotates or the lights change.
+     * @param level the level of detail of the mesh
+     * @return the amount added to each color channel at every vertex of that level of detail, or null if the level isn't lit
+     */
+    public int[] getLitVertexBrightness(int level)
+    {
+        if (!needsLighting(level))
+            return null;
+
+        if (!isVertexLit(level))
+        {
+            prepareVertexLighting(level);
+            lightVertices(level, 0, mesh.getLevelOfDetail(level).getVertexCount());
+        }
+        return litVertexBrightness[level];
     }
     
     //#region getter methods 
@@ -46,6 +342,81 @@ public class GameObject implements Serializable
     {
         return name;
     }
+
+    /**
+     * @return the corner of the object's axis aligned bounding box in world space with the smallest coordinates
+     */
+    public Vector3 getBoundsMin()
+    {
+        if (!worldBoundsValid)
+            updateWorldBounds();
+        return worldBoundsMin;
+    }
+
+    /**
+     * @return the corner of the object's axis aligned bounding box in world space with the largest coordinates
+     */
+    public Vector3 getBoundsMax()
+    {
+        if (!worldBoundsValid)
+            updateWorldBounds();
+        return worldBoundsMax;
+    }
+
+    /**
+     * @return the center of a sphere in world space which contains every vertex of the object
+     */
+    public Vector3 getBoundingSphereCenter()
+    {
+        if (!worldBoundsValid)
+            updateWorldBounds();
+        return worldSphereCenter;
+    }
+
+    /**
+     * @return the radius of a sphere which contains every vertex of the object
+     */
+    public double getBoundingSphereRadius()
+    {
+        return mesh.getBoundingSphereRadius();
+    }
+
+    private void updateWorldBounds()
+    {
+        worldBoundsMin = getWorldBoundsCorner(true);
+        worldBoundsMax = getWorldBoundsCorner(false);
+        worldSphereCenter = Vector3.add(transform.getPosition(), mesh.getBoundingSphereCenter().multiply(transform.getRotationMatrix()));
+        worldBoundsValid = true;
+    }
+
+    //a corner of the box around the mesh's bounding box after it is rotated and moved by the transform. Each coordinate is the
+    //position plus the smallest (or largest) value every column of the rotation can add, which is exact without a rotation.
+    private Vector3 getWorldBoundsCorner(boolean min)
+    {
+        Matrix3x3 r = transform.getRotationMatrix();
+        Vector3 p = transform.getPosition();
+        Vector3 a = mesh.getBoundsMin();
+        Vector3 b = mesh.getBoundsMax();
+        return new Vector3(
+            p.x + extreme(r.R1C1 * a.x, r.R1C1 * b.x, min) + extreme(r.R1C2 * a.y, r.R1C2 * b.y, min) + extreme(r.R1C3 * a.z, r.R1C3 * b.z, min),
+            p.y + extreme(r.R2C1 * a.x, r.R2C1 * b.x, min) + extreme(r.R2C2 * a.y, r.R2C2 * b.y, min) + extreme(r.R2C3 * a.z, r.R2C3 * b.z, min),
+            p.z + extreme(r.R3C1 * a.x, r.R3C1 * b.x, min) + extreme(r.R3C2 * a.y, r.R3C2 * b.y, min) + extreme(r.R3C3 * a.z, r.R3C3 * b.z, min));
+    }
+
+    private static double extreme(double a, double b, boolean min)
+    {
+        return (min)? Math.min(a, b) : Math.max(a, b);
+    }
+
+    public int getLevelOfDetail()
+    {
+        return levelOfDetail;
+    }
+
+    public void setLevelOfDetail(int levelOfDetailIn)
+    {
+        levelOfDetail = levelOfDetailIn;
+    }
     //#endregion
 
     public static void saveGameObject(GameObject gameObject, File parentDirectory)
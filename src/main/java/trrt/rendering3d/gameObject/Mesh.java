@@ -4,34 +4,95 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
-import java.util.StringTokenizer;
-import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
 
-import trrt.rendering3d.graphics.Lighting;
 import trrt.rendering3d.primitives.Matrix3x3;
 import trrt.rendering3d.primitives.Quaternion;
 import trrt.rendering3d.primitives.Triangle;
 import trrt.rendering3d.primitives.Vector2;
 import trrt.rendering3d.primitives.Vector3;
 
-//a class for storing groups of triangles in a mesh.
+/**
+ * a class for storing groups of triangles in a mesh. The triangles are stored
+ * as flat arrays of primitives instead of {@link Triangle} objects, so the
+ * renderer can go through them without chasing references. {@link Triangle}
+ * objects are only created when they are asked for through
+ * {@link #getTriangles()}.
+ * <p>
+ * The vertices are in the mesh's local space. A {@link GameObject} places the
+ * mesh in the world with its {@link Transform}, without changing the mesh, so
+ * one mesh can be loaded once and shared by many game objects.
+ */
 public class Mesh implements Serializable {
 	private static final long serialVersionUID = 1;
 
-	// a collection of all the triangles in the mesh.
-	private List<Triangle> triangles;
-	private List<Vector3> vertices;
+	// the positions of the vertices, three doubles (x, y, z) per vertex.
+	private double[] vertices;
+	private int vertexCount;
 
-	// the color of all the triangles of the mesh.
-	private Color baseColor;
+	// the indices into vertices of the corners of each triangle, three per
+	// triangle. Triangles share vertices through this array, so the renderer
+	// can transform each vertex once instead of once per triangle that uses
+	// it.
+	private int[] triangleIndices;
+	private int triangleCount;
+
+	// unit normal and center of each triangle, three doubles per triangle.
+	// They only change when the mesh moves, so they are kept up to date by
+	// rotate() and translate() instead of being recalculated every frame.
+	// applyMatrix() and adding triangles mark them as out of date, and they
+	// are then recalculated the next time they are asked for.
+	private double[] triangleNormals;
+	private double[] triangleCenters;
+	private boolean triangleGeometryValid;
+
+	// unit normal of every vertex, three doubles per vertex, used for smooth
+	// shading. They come from the "vn" lines of the model file if it has
+	// them, otherwise from the normals of the triangles around each vertex,
+	// weighted by the area of the triangles. They are rotated with the mesh,
+	// and recalculated the next time they are asked for after triangles or
+	// vertices are added.
+	private double[] vertexNormals;
+	private boolean vertexNormalsValid;
+
+	// bounding volumes of the mesh: an axis aligned box and a sphere around
+	// all the vertices. Like the triangle normals, they are kept up to date by
+	// rotate() and translate() and recalculated on use after anything else
+	// changes the vertices.
+	private Vector3 boundsMin;
+	private Vector3 boundsMax;
+	private Vector3 boundingSphereCenter;
+	private double boundingSphereRadius;
+	private boolean boundsValid;
+
+	// simplified versions of the mesh, from the most to the least detailed,
+	// and how far each one is from this mesh at most. They are moved together
+	// with this mesh.
+	private Mesh[] levelsOfDetail = new Mesh[0];
+	private double[] levelOfDetailErrors = new double[0];
+
+	// levels of detail stop once they would have fewer triangles than this.
+	private static final int MIN_LEVEL_OF_DETAIL_TRIANGLES = 64;
+
+	// packed rgb color of each triangle before lighting. Lighting depends on
+	// how each game object using the mesh is rotated, so it is done by the
+	// renderer.
+	private int[] triangleColors;
+
+	// texture coordinates, two doubles (u, v) per coordinate, and the index of
+	// the texture coordinate of every triangle corner. Only used by textured
+	// meshes.
+	private double[] textureCoords;
+	private int[] cornerTextureIndices;
+
+	// the packed rgb color of all the triangles of the mesh.
+	private int baseColor;
 
 	// should the mesh be effected by lighting?
 	private boolean shading;
@@ -39,12 +100,11 @@ public class Mesh implements Serializable {
 	// a sum of all translations
 	private Vector3 totalMovement;
 
-	// the lighting object which was used last to recalculate lighting
-	private Lighting lighting;
-
-	// the texture applied to the mesh
+	// the texture applied to the mesh, and the same texture packed for the
+	// rasterizer.
 	private BufferedImage texture;
 	private Raster textureRaster;
+	private Texture packedTexture;
 
 	/**
 	 * constructor for making a mesh with a texture
@@ -71,31 +131,34 @@ public class Mesh implements Serializable {
 					"ERROR at: Mesh/constructor:\n\tError while loading texture: "
 							+ textureFile);
 		}
-		if (texture != null)
+		if (texture != null) {
 			textureRaster = texture.getData();
+			packedTexture = new Texture(texture);
+		}
 
-		vertices = new ArrayList<Vector3>();
-		triangles = new ArrayList<Triangle>();
 		shading = shaded;
-		baseColor = Color.MAGENTA;
+		baseColor = Color.MAGENTA.getRGB() & 0xFFFFFF;
 		totalMovement = Vector3.ZERO;
+		initializeStorage();
 
+		// the time spent reading the model, to report how fast the file was
+		// read.
+		long readStart = System.nanoTime();
+		long bytesRead = 0;
 		if (modelFile.getName().endsWith(".obj")) {
-			createTriangles(modelFile, modelOffsetAmount, modelOffsetRotation,
-					scale);
-			if (modelOffsetAmount == null) {
-				Vector3 com = Mesh.centerOfMass(vertices);
-				for (int i = 0; i < vertices.size(); i++) {
-					vertices.set(i, vertices.get(i).subtract(com));
-				}
-			}
+			bytesRead = createTriangles(modelFile, modelOffsetAmount,
+					modelOffsetRotation, scale);
 		} else {
 			System.err.println(
 					"ERROR at: Mesh/constructor:\n\tUnsupported 3d model file type. Please use .obj files");
 		}
+		long readTime = System.nanoTime() - readStart;
+		trimStorage();
 		System.out.println("mesh created: " + modelFile + " in "
 				+ (System.nanoTime() - start) / 1000000 + "ms\n\t- "
-				+ triangles.size() + " triangles");
+				+ triangleCount + " triangles\n\t- read at "
+				+ String.format("%.1f", bytesRead * 1000.0 / readTime)
+				+ " MB/s");
 	}
 
 	/**
@@ -116,36 +179,190 @@ public class Mesh implements Serializable {
 		long start = System.nanoTime();
 		texture = null;
 		textureRaster = null;
-		vertices = new ArrayList<Vector3>();
-		triangles = new ArrayList<Triangle>();
 		shading = shaded;
-		baseColor = (color == null) ? Color.MAGENTA : color;
+		baseColor = ((color == null) ? Color.MAGENTA : color).getRGB()
+				& 0xFFFFFF;
 		totalMovement = Vector3.ZERO;
+		initializeStorage();
 
+		// the time spent reading the model, to report how fast the file was
+		// read.
+		long readStart = System.nanoTime();
+		long bytesRead = 0;
 		if (modelFile.getName().endsWith(".obj")) {
-			createTriangles(modelFile, modelOffsetAmount, modelOffsetRotation,
-					scale);
-			if (modelOffsetAmount == null) {
-				Vector3 com = Mesh.centerOfMass(vertices);
-				System.out.println(com);
-				for (int i = 0; i < vertices.size(); i++) {
-					vertices.set(i, vertices.get(i).subtract(com));
-				}
-				triangles = triangles.stream().map(tri -> tri.subtract(com))
-						.collect(Collectors.toList());
-			}
+			bytesRead = createTriangles(modelFile, modelOffsetAmount,
+					modelOffsetRotation, scale);
 		} else {
 			System.err.println(
 					"ERROR at: Mesh/constructor:\n\tUnsupported 3d model file type. Please use .obj files");
 		}
+		long readTime = System.nanoTime() - readStart;
+		trimStorage();
 		System.out.println("mesh created: " + modelFile + " in "
 				+ (System.nanoTime() - start) / 1000000 + "ms\n\t- "
-				+ triangles.size() + " triangles");
+				+ triangleCount + " triangles\n\t- read at "
+				+ String.format("%.1f", bytesRead * 1000.0 / readTime)
+				+ " MB/s");
 	}
 
 	protected Mesh(boolean shadedIn) {
 		shading = shadedIn;
-		triangles = new ArrayList<Triangle>();
+		baseColor = Color.MAGENTA.getRGB() & 0xFFFFFF;
+		totalMovement = Vector3.ZERO;
+		initializeStorage();
+	}
+
+	// creates a level of detail of a mesh from the current state of a
+	// simplifier. The triangles keep the colors of the triangles they came
+	// from.
+	private Mesh(Mesh original, MeshSimplifier simplifier) {
+		shading = original.shading;
+		baseColor = original.baseColor;
+		totalMovement = original.totalMovement;
+		texture = original.texture;
+		textureRaster = original.textureRaster;
+		packedTexture = original.packedTexture;
+		initializeStorage();
+
+		vertices = simplifier.getVertices();
+		vertexCount = vertices.length / 3;
+		triangleIndices = simplifier.getTriangleIndices();
+		triangleCount = triangleIndices.length / 3;
+		int[] sourceTriangles = simplifier.getSourceTriangles();
+		triangleColors = new int[triangleCount];
+		for (int i = 0; i < triangleCount; i++) {
+			triangleColors[i] = original.triangleColors[sourceTriangles[i]];
+		}
+		if (original.cornerTextureIndices.length > 0) {
+			textureCoords = original.textureCoords;
+			cornerTextureIndices = new int[triangleCount * 3];
+			for (int i = 0; i < triangleCount; i++) {
+				System.arraycopy(original.cornerTextureIndices,
+						sourceTriangles[i] * 3, cornerTextureIndices, i * 3, 3);
+			}
+		}
+	}
+
+	/**
+	 * creates simplified versions of the mesh, which the renderer can draw
+	 * instead of this mesh when it is far away. Each level has about half the
+	 * triangles of the one before, and is made by collapsing the edges which
+	 * change the shape of the mesh the least (see {@link MeshSimplifier}).
+	 * Fewer levels are made if the mesh can't be simplified that far.
+	 * 
+	 * @param maxLevels the number of simplified levels to make at most
+	 */
+	public void generateLevelsOfDetail(int maxLevels) {
+		long start = System.nanoTime();
+		MeshSimplifier simplifier = new MeshSimplifier(vertices, vertexCount,
+				triangleIndices, triangleCount);
+		ArrayList<Mesh> levels = new ArrayList<Mesh>();
+		ArrayList<Double> errors = new ArrayList<Double>();
+		int previousCount = triangleCount;
+		for (int i = 0; i < maxLevels; i++) {
+			int target = previousCount / 2;
+			if (target < MIN_LEVEL_OF_DETAIL_TRIANGLES)
+				break;
+			simplifier.simplify(target);
+			if (simplifier.getTriangleCount() >= previousCount)
+				break;
+			levels.add(new Mesh(this, simplifier));
+			errors.add(simplifier.getError());
+			previousCount = simplifier.getTriangleCount();
+		}
+
+		levelsOfDetail = levels.toArray(new Mesh[levels.size()]);
+		levelOfDetailErrors = new double[errors.size()];
+		for (int i = 0; i < levelOfDetailErrors.length; i++) {
+			levelOfDetailErrors[i] = errors.get(i);
+		}
+		System.out.println("levels of detail created in "
+				+ (System.nanoTime() - start) / 1000000 + "ms\n\t- "
+				+ levelsOfDetail.length + " levels down to " + previousCount
+				+ " triangles");
+	}
+
+	// creates small arrays for the vertices and triangles, which grow as they
+	// are added.
+	private void initializeStorage() {
+		vertices = new double[3 * 16];
+		triangleIndices = new int[3 * 16];
+		triangleColors = new int[16];
+		textureCoords = new double[0];
+		cornerTextureIndices = new int[0];
+		triangleNormals = new double[0];
+		triangleCenters = new double[0];
+		triangleGeometryValid = false;
+		vertexNormals = new double[0];
+		vertexNormalsValid = false;
+		boundsValid = false;
+	}
+
+	// shrinks the arrays to the exact number of vertices and triangles once
+	// the mesh is loaded.
+	private void trimStorage() {
+		vertices = Arrays.copyOf(vertices, vertexCount * 3);
+		triangleIndices = Arrays.copyOf(triangleIndices, triangleCount * 3);
+		triangleColors = Arrays.copyOf(triangleColors, triangleCount);
+		if (cornerTextureIndices.length > 0)
+			cornerTextureIndices = Arrays.copyOf(cornerTextureIndices,
+					triangleCount * 3);
+	}
+
+	/**
+	 * adds a vertex to the mesh.
+	 * 
+	 * @param vertex the position of the vertex
+	 * @return the index of the vertex, which is used to create triangles with
+	 *         {@link #addTriangle(int, int, int, Color)}
+	 */
+	protected int addVertex(Vector3 vertex) {
+		return addVertex(vertex.x, vertex.y, vertex.z);
+	}
+
+	// adds a vertex, growing the vertex array if needed, and returns its
+	// index.
+	private int addVertex(double x, double y, double z) {
+		if (vertexCount * 3 + 3 > vertices.length)
+			vertices = Arrays.copyOf(vertices, vertices.length * 2);
+		vertices[vertexCount * 3] = x;
+		vertices[vertexCount * 3 + 1] = y;
+		vertices[vertexCount * 3 + 2] = z;
+		triangleGeometryValid = false;
+		vertexNormalsValid = false;
+		boundsValid = false;
+		return vertexCount++;
+	}
+
+	/**
+	 * adds a triangle between three vertices of the mesh
+	 * 
+	 * @param index1 index of the first vertex
+	 * @param index2 index of the second vertex
+	 * @param index3 index of the third vertex
+	 * @param color  color of the triangle
+	 */
+	protected void addTriangle(int index1, int index2, int index3,
+			Color color) {
+		addTriangle(index1, index2, index3, color.getRGB() & 0xFFFFFF);
+	}
+
+	// adds a triangle with a packed rgb color, growing the triangle arrays if
+	// needed, and returns its index.
+	private int addTriangle(int index1, int index2, int index3, int rgb) {
+		if (triangleCount == triangleColors.length) {
+			triangleIndices = Arrays.copyOf(triangleIndices,
+					triangleIndices.length * 2);
+			triangleColors = Arrays.copyOf(triangleColors,
+					triangleColors.length * 2);
+		}
+		triangleIndices[triangleCount * 3] = index1;
+		triangleIndices[triangleCount * 3 + 1] = index2;
+		triangleIndices[triangleCount * 3 + 2] = index3;
+		triangleColors[triangleCount] = rgb;
+		triangleGeometryValid = false;
+		vertexNormalsValid = false;
+		return triangleCount++;
 	}
 
 	/**
@@ -156,10 +373,84 @@ public class Mesh implements Serializable {
 	 * @param centerOfRotation center of rotation
 	 */
 	public void rotate(Quaternion quaternion, Vector3 centerOfRotation) {
-		for (int i = 0; i < vertices.size(); i++) {
-			vertices.set(i,
-					Vector3.add(vertices.get(i).subtract(centerOfRotation)
-							.rotate(quaternion), centerOfRotation));
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE,
+				minZ = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE,
+				maxZ = -Double.MAX_VALUE;
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			double x = vertices[i] - centerOfRotation.x;
+			double y = vertices[i + 1] - centerOfRotation.y;
+			double z = vertices[i + 2] - centerOfRotation.z;
+
+			// same as Vector3.rotate(), without creating vectors
+			double w = -(quaternion.x * x + quaternion.y * y
+					+ quaternion.z * z);
+			double rx = quaternion.w * x + quaternion.y * z - quaternion.z * y;
+			double ry = quaternion.w * y + quaternion.z * x - quaternion.x * z;
+			double rz = quaternion.w * z + quaternion.x * y - quaternion.y * x;
+
+			vertices[i] = quaternion.w * rx - w * quaternion.x
+					- ry * quaternion.z + rz * quaternion.y
+					+ centerOfRotation.x;
+			vertices[i + 1] = quaternion.w * ry - w * quaternion.y
+					- rz * quaternion.x + rx * quaternion.z
+					+ centerOfRotation.y;
+			vertices[i + 2] = quaternion.w * rz - w * quaternion.z
+					- rx * quaternion.y + ry * quaternion.x
+					+ centerOfRotation.z;
+
+			// the box has to be rebuilt from the rotated vertices, since
+			// rotating the old box would make it bigger every time.
+			minX = Math.min(minX, vertices[i]);
+			minY = Math.min(minY, vertices[i + 1]);
+			minZ = Math.min(minZ, vertices[i + 2]);
+			maxX = Math.max(maxX, vertices[i]);
+			maxY = Math.max(maxY, vertices[i + 1]);
+			maxZ = Math.max(maxZ, vertices[i + 2]);
+		}
+		if (boundsValid && vertexCount > 0) {
+			boundsMin = new Vector3(minX, minY, minZ);
+			boundsMax = new Vector3(maxX, maxY, maxZ);
+			boundingSphereCenter = boundingSphereCenter
+					.subtract(centerOfRotation).rotate(quaternion)
+					.add(centerOfRotation);
+		}
+		if (triangleGeometryValid) {
+			rotateVectors(triangleNormals, triangleCount, quaternion,
+					Vector3.ZERO);
+			rotateVectors(triangleCenters, triangleCount, quaternion,
+					centerOfRotation);
+		}
+		if (vertexNormalsValid)
+			rotateVectors(vertexNormals, vertexCount, quaternion, Vector3.ZERO);
+		for (int i = 0; i < levelsOfDetail.length; i++) {
+			levelsOfDetail[i].rotate(quaternion, centerOfRotation);
+		}
+	}
+
+	// rotates a number of vectors or points, stored as three doubles each,
+	// around the center of rotation.
+	private static void rotateVectors(double[] values, int count,
+			Quaternion quaternion, Vector3 centerOfRotation) {
+		for (int i = 0; i < count * 3; i += 3) {
+			double x = values[i] - centerOfRotation.x;
+			double y = values[i + 1] - centerOfRotation.y;
+			double z = values[i + 2] - centerOfRotation.z;
+
+			double w = -(quaternion.x * x + quaternion.y * y
+					+ quaternion.z * z);
+			double rx = quaternion.w * x + quaternion.y * z - quaternion.z * y;
+			double ry = quaternion.w * y + quaternion.z * x - quaternion.x * z;
+			double rz = quaternion.w * z + quaternion.x * y - quaternion.y * x;
+
+			values[i] = quaternion.w * rx - w * quaternion.x - ry * quaternion.z
+					+ rz * quaternion.y + centerOfRotation.x;
+			values[i + 1] = quaternion.w * ry - w * quaternion.y
+					- rz * quaternion.x + rx * quaternion.z
+					+ centerOfRotation.y;
+			values[i + 2] = quaternion.w * rz - w * quaternion.z
+					- rx * quaternion.y + ry * quaternion.x
+					+ centerOfRotation.z;
 		}
 	}
 
@@ -170,10 +461,40 @@ public class Mesh implements Serializable {
 	 * @param centerOfRotation the center of rotation for the mesh
 	 */
 	public void applyMatrix(Matrix3x3 matrix, Vector3 centerOfRotation) {
-		for (int i = 0; i < vertices.size(); i++) {
-			vertices.set(i, Vector3.add(
-					vertices.get(i).subtract(centerOfRotation).multiply(matrix),
-					centerOfRotation));
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			double x = vertices[i] - centerOfRotation.x;
+			double y = vertices[i + 1] - centerOfRotation.y;
+			double z = vertices[i + 2] - centerOfRotation.z;
+			vertices[i] = x * matrix.R1C1 + y * matrix.R1C2 + z * matrix.R1C3
+					+ centerOfRotation.x;
+			vertices[i + 1] = x * matrix.R2C1 + y * matrix.R2C2
+					+ z * matrix.R2C3 + centerOfRotation.y;
+			vertices[i + 2] = x * matrix.R3C1 + y * matrix.R3C2
+					+ z * matrix.R3C3 + centerOfRotation.z;
+		}
+		// the matrix may scale or shear the mesh, so the normals and bounds
+		// can't simply be multiplied by it. Vertex normals are multiplied by
+		// its cofactor matrix instead, which keeps them perpendicular to the
+		// surface, so normals read from the model file aren't lost.
+		triangleGeometryValid = false;
+		boundsValid = false;
+		if (vertexNormalsValid) {
+			Matrix3x3 cofactors = matrix.getCofactorMatrix();
+			for (int i = 0; i < vertexCount * 3; i += 3) {
+				double x = vertexNormals[i];
+				double y = vertexNormals[i + 1];
+				double z = vertexNormals[i + 2];
+				setNormal(vertexNormals, i,
+						x * cofactors.R1C1 + y * cofactors.R1C2
+								+ z * cofactors.R1C3,
+						x * cofactors.R2C1 + y * cofactors.R2C2
+								+ z * cofactors.R2C3,
+						x * cofactors.R3C1 + y * cofactors.R3C2
+								+ z * cofactors.R3C3);
+			}
+		}
+		for (int i = 0; i < levelsOfDetail.length; i++) {
+			levelsOfDetail[i].applyMatrix(matrix, centerOfRotation);
 		}
 	}
 
@@ -183,10 +504,162 @@ public class Mesh implements Serializable {
 	 * @param amount the translation
 	 */
 	public void translate(Vector3 amount) {
-		for (int i = 0; i < vertices.size(); i++) {
-			vertices.set(i, Vector3.add(vertices.get(i), amount));
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			vertices[i] += amount.x;
+			vertices[i + 1] += amount.y;
+			vertices[i + 2] += amount.z;
+		}
+		if (triangleGeometryValid) {
+			for (int i = 0; i < triangleCount * 3; i += 3) {
+				triangleCenters[i] += amount.x;
+				triangleCenters[i + 1] += amount.y;
+				triangleCenters[i + 2] += amount.z;
+			}
+		}
+		if (boundsValid) {
+			boundsMin = boundsMin.add(amount);
+			boundsMax = boundsMax.add(amount);
+			boundingSphereCenter = boundingSphereCenter.add(amount);
 		}
 		totalMovement = Vector3.add(totalMovement, amount);
+		for (int i = 0; i < levelsOfDetail.length; i++) {
+			levelsOfDetail[i].translate(amount);
+		}
+	}
+
+	// recalculates the normal and center of every triangle from its vertices.
+	private void updateTriangleGeometry() {
+		if (triangleNormals.length < triangleCount * 3) {
+			triangleNormals = new double[triangleCount * 3];
+			triangleCenters = new double[triangleCount * 3];
+		}
+		for (int i = 0; i < triangleCount * 3; i += 3) {
+			int v1 = triangleIndices[i] * 3;
+			int v2 = triangleIndices[i + 1] * 3;
+			int v3 = triangleIndices[i + 2] * 3;
+
+			triangleCenters[i] = (vertices[v1] + vertices[v2] + vertices[v3])
+					/ 3;
+			triangleCenters[i + 1] = (vertices[v1 + 1] + vertices[v2 + 1]
+					+ vertices[v3 + 1]) / 3;
+			triangleCenters[i + 2] = (vertices[v1 + 2] + vertices[v2 + 2]
+					+ vertices[v3 + 2]) / 3;
+
+			// the normal is (v1 - v2) x (v2 - v3)
+			double ax = vertices[v1] - vertices[v2];
+			double ay = vertices[v1 + 1] - vertices[v2 + 1];
+			double az = vertices[v1 + 2] - vertices[v2 + 2];
+			double bx = vertices[v2] - vertices[v3];
+			double by = vertices[v2 + 1] - vertices[v3 + 1];
+			double bz = vertices[v2 + 2] - vertices[v3 + 2];
+			double nx = ay * bz - az * by;
+			double ny = az * bx - ax * bz;
+			double nz = ax * by - ay * bx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			// degenerate triangles keep a zero normal.
+			if (length > 0) {
+				nx /= length;
+				ny /= length;
+				nz /= length;
+			}
+			triangleNormals[i] = nx;
+			triangleNormals[i + 1] = ny;
+			triangleNormals[i + 2] = nz;
+		}
+		triangleGeometryValid = true;
+	}
+
+	// recalculates the normal of every vertex by adding up the normals of the
+	// triangles around it. The cross product of two edges is as long as twice
+	// the area of the triangle, so large triangles count more.
+	private void updateVertexNormals() {
+		if (vertexNormals.length < vertexCount * 3)
+			vertexNormals = new double[vertexCount * 3];
+		Arrays.fill(vertexNormals, 0, vertexCount * 3, 0);
+		for (int i = 0; i < triangleCount * 3; i += 3) {
+			int v1 = triangleIndices[i] * 3;
+			int v2 = triangleIndices[i + 1] * 3;
+			int v3 = triangleIndices[i + 2] * 3;
+
+			// the same normal as in updateTriangleGeometry(), not normalized
+			double ax = vertices[v1] - vertices[v2];
+			double ay = vertices[v1 + 1] - vertices[v2 + 1];
+			double az = vertices[v1 + 2] - vertices[v2 + 2];
+			double bx = vertices[v2] - vertices[v3];
+			double by = vertices[v2 + 1] - vertices[v3 + 1];
+			double bz = vertices[v2 + 2] - vertices[v3 + 2];
+			double nx = ay * bz - az * by;
+			double ny = az * bx - ax * bz;
+			double nz = ax * by - ay * bx;
+			for (int j = 0; j < 3; j++) {
+				int v = triangleIndices[i + j] * 3;
+				vertexNormals[v] += nx;
+				vertexNormals[v + 1] += ny;
+				vertexNormals[v + 2] += nz;
+			}
+		}
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			setNormal(vertexNormals, i, vertexNormals[i], vertexNormals[i + 1],
+					vertexNormals[i + 2]);
+		}
+		vertexNormalsValid = true;
+	}
+
+	// stores a vector at index in an array of normals, normalized. A zero
+	// vector stays zero.
+	private static void setNormal(double[] normals, int index, double x,
+			double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length > 0) {
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		normals[index] = x;
+		normals[index + 1] = y;
+		normals[index + 2] = z;
+	}
+
+	// recalculates the bounding box and sphere from the vertices. The sphere is
+	// centered on the center of the box.
+	private void updateBounds() {
+		if (vertexCount == 0) {
+			boundsMin = totalMovement;
+			boundsMax = totalMovement;
+			boundingSphereCenter = totalMovement;
+			boundingSphereRadius = 0;
+			boundsValid = true;
+			return;
+		}
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE,
+				minZ = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE,
+				maxZ = -Double.MAX_VALUE;
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			minX = Math.min(minX, vertices[i]);
+			minY = Math.min(minY, vertices[i + 1]);
+			minZ = Math.min(minZ, vertices[i + 2]);
+			maxX = Math.max(maxX, vertices[i]);
+			maxY = Math.max(maxY, vertices[i + 1]);
+			maxZ = Math.max(maxZ, vertices[i + 2]);
+		}
+		boundsMin = new Vector3(minX, minY, minZ);
+		boundsMax = new Vector3(maxX, maxY, maxZ);
+
+		double centerX = (minX + maxX) / 2;
+		double centerY = (minY + maxY) / 2;
+		double centerZ = (minZ + maxZ) / 2;
+		double maxDistanceSquared = 0;
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			double x = vertices[i] - centerX;
+			double y = vertices[i + 1] - centerY;
+			double z = vertices[i + 2] - centerZ;
+			maxDistanceSquared = Math.max(maxDistanceSquared,
+					x * x + y * y + z * z);
+		}
+		boundingSphereCenter = new Vector3(centerX, centerY, centerZ);
+		boundingSphereRadius = Math.sqrt(maxDistanceSquared);
+		boundsValid = true;
 	}
 
 	// #region getter methods
@@ -198,149 +671,441 @@ public class Mesh implements Serializable {
 		return textureRaster;
 	}
 
-	public List<Triangle> getTriangles() {
-		return triangles;
+	/**
+	 * @return the texture of the mesh packed for the rasterizer, or null if
+	 *         the mesh has no texture
+	 */
+	public Texture getTexture() {
+		return packedTexture;
 	}
 
-	public List<Vector3> getVertices() {
+	/**
+	 * @return the texture coordinates, two values (u, v) per coordinate
+	 */
+	public double[] getTextureCoords() {
+		return textureCoords;
+	}
+
+	/**
+	 * @return the index of the texture coordinate of every triangle corner,
+	 *         three per triangle. Empty if the mesh has no texture.
+	 */
+	public int[] getCornerTextureIndices() {
+		return cornerTextureIndices;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * @return the vertex positions, three values (x, y, z) per vertex. The
+	 *         array may be longer than needed.
+	 */
+	public double[] getVertexPositions() {
 		return vertices;
 	}
 
-	// #endregion
+	/**
+	 * @return the vertex indices of every triangle, three per triangle. The
+	 *         array may be longer than needed.
+	 */
+	public int[] getTriangleIndices() {
+		return triangleIndices;
+	}
 
 	/**
-	 * calculates the lighting of each triangle in the mesh based off the given
-	 * lighting object
-	 * 
-	 * @param lightingIn the lighting object
+	 * @return the unit normal of every triangle, three values (x, y, z) per
+	 *         triangle. The array may be longer than needed.
 	 */
-	public void calculateLighting(Lighting lightingIn) {
-		if (shading) {
-			for (int i = 0; i < triangles.size(); i++) {
-				triangles.get(i).calculateLightingColor(lightingIn);
-			}
+	public double[] getTriangleNormals() {
+		if (!triangleGeometryValid)
+			updateTriangleGeometry();
+		return triangleNormals;
+	}
+
+	/**
+	 * @return the center of every triangle, three values (x, y, z) per
+	 *         triangle. The array may be longer than needed.
+	 */
+	public double[] getTriangleCenters() {
+		if (!triangleGeometryValid)
+			updateTriangleGeometry();
+		return triangleCenters;
+	}
+
+	/**
+	 * @return the unit normal of every vertex, three values (x, y, z) per
+	 *         vertex. The array may be longer than needed.
+	 */
+	public double[] getVertexNormals() {
+		if (!vertexNormalsValid)
+			updateVertexNormals();
+		return vertexNormals;
+	}
+
+	/**
+	 * @return the corner of the axis aligned bounding box with the smallest
+	 *         coordinates
+	 */
+	public Vector3 getBoundsMin() {
+		if (!boundsValid)
+			updateBounds();
+		return boundsMin;
+	}
+
+	/**
+	 * @return the corner of the axis aligned bounding box with the largest
+	 *         coordinates
+	 */
+	public Vector3 getBoundsMax() {
+		if (!boundsValid)
+			updateBounds();
+		return boundsMax;
+	}
+
+	/**
+	 * @return the center of a sphere which contains every vertex of the mesh
+	 */
+	public Vector3 getBoundingSphereCenter() {
+		if (!boundsValid)
+			updateBounds();
+		return boundingSphereCenter;
+	}
+
+	/**
+	 * @return the radius of a sphere which contains every vertex of the mesh
+	 */
+	public double getBoundingSphereRadius() {
+		if (!boundsValid)
+			updateBounds();
+		return boundingSphereRadius;
+	}
+
+	/**
+	 * @return the number of levels of detail, including this mesh as level 0
+	 */
+	public int getLevelOfDetailCount() {
+		return levelsOfDetail.length + 1;
+	}
+
+	/**
+	 * @param level the level of detail, 0 being this mesh
+	 * @return the mesh for that level of detail
+	 */
+	public Mesh getLevelOfDetail(int level) {
+		return (level == 0) ? this : levelsOfDetail[level - 1];
+	}
+
+	/**
+	 * @param level the level of detail, 0 being this mesh
+	 * @return an estimate of the largest distance between that level of detail
+	 *         and this mesh
+	 */
+	public double getLevelOfDetailError(int level) {
+		return (level == 0) ? 0 : levelOfDetailErrors[level - 1];
+	}
+
+	/**
+	 * @return the packed rgb color of every triangle before lighting
+	 */
+	public int[] getTriangleColors() {
+		return triangleColors;
+	}
+
+	/**
+	 * @return a new list with a {@link Triangle} object for every triangle in
+	 *         the mesh. Changes to the list do not change the mesh.
+	 */
+	public List<Triangle> getTriangles() {
+		List<Triangle> triangles = new ArrayList<Triangle>(triangleCount);
+		for (int i = 0; i < triangleCount; i++) {
+			triangles.add(getTriangle(i));
 		}
-		lighting = lightingIn;
+		return triangles;
 	}
 
 	/**
-	 * refreshes the lighting based on the last used lighting object.
+	 * @param index the index of the triangle
+	 * @return a {@link Triangle} object with the current vertices and color of
+	 *         the triangle, in local space and without lighting
 	 */
-	public void refreshLighting() {
-		if (shading) {
-			for (int i = 0; i < triangles.size(); i++) {
-				triangles.get(i).calculateLightingColor(lighting);
-			}
+	public Triangle getTriangle(int index) {
+		Vector2 textureCoord1 = Vector2.ZERO;
+		Vector2 textureCoord2 = Vector2.ZERO;
+		Vector2 textureCoord3 = Vector2.ZERO;
+		if (cornerTextureIndices.length > 0) {
+			textureCoord1 = getTextureCoord(cornerTextureIndices[index * 3]);
+			textureCoord2 = getTextureCoord(
+					cornerTextureIndices[index * 3 + 1]);
+			textureCoord3 = getTextureCoord(
+					cornerTextureIndices[index * 3 + 2]);
+		}
+		return new Triangle(this, getVertex(triangleIndices[index * 3]),
+				getVertex(triangleIndices[index * 3 + 1]),
+				getVertex(triangleIndices[index * 3 + 2]), textureCoord1,
+				textureCoord2, textureCoord3, triangleColors[index],
+				triangleColors[index]);
+	}
+
+	/**
+	 * @return a new list with the position of every vertex in the mesh
+	 */
+	public List<Vector3> getVertices() {
+		List<Vector3> vertexList = new ArrayList<Vector3>(vertexCount);
+		for (int i = 0; i < vertexCount; i++) {
+			vertexList.add(getVertex(i));
 		}
+		return vertexList;
+	}
+
+	public Vector3 getVertex(int index) {
+		return new Vector3(vertices[index * 3], vertices[index * 3 + 1],
+				vertices[index * 3 + 2]);
 	}
 
+	private Vector2 getTextureCoord(int index) {
+		return new Vector2(textureCoords[index * 2],
+				textureCoords[index * 2 + 1]);
+	}
+
+	// #endregion
+
 	/**
-	 * reads a .obj file (a text file) and stores triangles inside the triangle
-	 * list.
+	 * reads a .obj file (a text file) and stores its vertices and triangles in
+	 * the mesh. The file is read in one pass with an {@link ObjReader}, and
+	 * the offset rotation, scale and position are applied to all vertices at
+	 * the end.
 	 * 
 	 * @param file              .obj file name
 	 * @param offsetPosition
 	 * @param offsetOrientation
 	 * @param scale
+	 * @return the size of the file in bytes, or 0 if it couldn't be read
 	 */
-	private void createTriangles(File file, Vector3 offsetPosition,
+	private long createTriangles(File file, Vector3 offsetPosition,
 			Quaternion offsetOrientation, double scale) {
-		// vertices are temporarily stored before they are conbined into
-		// triangles and added into the main
-		// triangle list.
-		ArrayList<Vector2> textureCoords = new ArrayList<Vector2>();
-		Scanner scanner;
-		String line = "";
-
-		// innitialize the scanner
-		try {
-			scanner = new Scanner(file);
-		} catch (FileNotFoundException e) {
-			System.err.println("ERROR at: Mesh/readObjFile() method:\n\tfile "
-					+ file.getName() + " not found in "
-					+ file.getAbsolutePath());
-			return;
-		}
+		int textureCoordCount = 0;
+		// the normals from the "vn" lines, and the sum of the normals given
+		// to the corners of each vertex by the faces.
+		double[] normals = new double[3 * 16];
+		int normalCount = 0;
+		double[] normalSums = new double[0];
+		// the vertex and texture coordinate indices of the corners of a face,
+		// reused for every face.
+		int[] coordinateIndexes = new int[16];
+		int[] textureIndexes = new int[16];
+		long size;
 
-		// scanner goes through the file
-		while (scanner.hasNextLine()) {
-			line = scanner.nextLine();
+		if (texture != null) {
+			textureCoords = new double[2 * 16];
+			cornerTextureIndices = new int[triangleIndices.length];
+		}
 
-			if (!line.equals("")) {
+		try (ObjReader reader = new ObjReader(file)) {
+			size = reader.getSize();
+			while (reader.nextLine()) {
 				// v means Vector3 in .obj files
-				if (line.startsWith("v ")) {
-					StringTokenizer lineTokens = new StringTokenizer(line);
-					lineTokens.nextToken();
-					// create the Vector3 object
-					Vector3 vertexCoordinate = new Vector3(
-							Double.parseDouble(lineTokens.nextToken()),
-							Double.parseDouble(lineTokens.nextToken()),
-							Double.parseDouble(lineTokens.nextToken()));
-
-					// apply transformations to the Vector3 based on offset
-					// params
-					vertexCoordinate = vertexCoordinate
-							.rotate(offsetOrientation);
-					vertexCoordinate = Vector3.multiply(vertexCoordinate,
-							scale);
-					if (offsetPosition != null)
-						vertexCoordinate = Vector3.add(offsetPosition,
-								vertexCoordinate);
-
-					// adds the Vector3 to the array of vertices
-					vertices.add(vertexCoordinate);
+				if (reader.readKeyword("v")) {
+					addVertex(reader.readDouble(), reader.readDouble(),
+							reader.readDouble());
 				}
 
 				// vt means Vector3 texture coordinates.
-				if (texture != null && line.startsWith("vt ")) {
-					StringTokenizer tokens = new StringTokenizer(line);
-					tokens.nextToken();
-					textureCoords.add(
-							new Vector2(Double.parseDouble(tokens.nextToken()),
-									Double.parseDouble(tokens.nextToken())));
+				else if (reader.readKeyword("vt")) {
+					if (texture == null)
+						continue;
+					if (textureCoordCount * 2 + 2 > textureCoords.length)
+						textureCoords = Arrays.copyOf(textureCoords,
+								textureCoords.length * 2);
+					textureCoords[textureCoordCount * 2] = reader.readDouble();
+					textureCoords[textureCoordCount * 2 + 1] = reader
+							.readDouble();
+					textureCoordCount++;
 				}
 
-				// f means face in .obj files
-				if (line.startsWith("f ")) {
-					StringTokenizer lineTokens = new StringTokenizer(line);
-					lineTokens.nextToken();
-					int tokenLength = lineTokens.countTokens();
-					int[] coordinateIndexes = new int[tokenLength];
-					int[] textureIndexes = new int[tokenLength];
-					String[] tempArr;
-
-					Color color = baseColor;
-					for (int i = 0; i < tokenLength; i++) {
-						tempArr = lineTokens.nextToken().split("/");
-						coordinateIndexes[i] = Integer.parseInt(tempArr[0]) - 1;
-						if (texture != null)
-							textureIndexes[i] = Integer.parseInt(tempArr[1])
-									- 1;
+				// vn means vertex normal. They are rotated at the end like the
+				// vertices, but not scaled or moved.
+				else if (reader.readKeyword("vn")) {
+					if (normalCount * 3 + 3 > normals.length)
+						normals = Arrays.copyOf(normals, normals.length * 2);
+					normals[normalCount * 3] = reader.readDouble();
+					normals[normalCount * 3 + 1] = reader.readDouble();
+					normals[normalCount * 3 + 2] = reader.readDouble();
+					normalCount++;
+				}
+
+				// f means face in .obj files. Each corner is a vertex index,
+				// optionally followed by a texture coordinate index and a
+				// normal index, like "1/2/3" or "1//3". Textured meshes need
+				// the texture coordinate index.
+				else if (reader.readKeyword("f")) {
+					int cornerCount = 0;
+					while (reader.hasToken()) {
+						if (cornerCount == coordinateIndexes.length) {
+							coordinateIndexes = Arrays.copyOf(
+									coordinateIndexes, cornerCount * 2);
+							textureIndexes = Arrays.copyOf(textureIndexes,
+									cornerCount * 2);
+						}
+						int vertex = resolveIndex(reader.readInt(), vertexCount,
+								"vertex", reader);
+						int textureIndex = -1;
+						int normal = -1;
+						if (reader.skip('/')) {
+							if (reader.hasInt()) {
+								int index = reader.readInt();
+								if (texture != null)
+									textureIndex = resolveIndex(index,
+											textureCoordCount,
+											"texture coordinate", reader);
+							}
+							if (reader.skip('/') && reader.hasInt())
+								normal = resolveIndex(reader.readInt(),
+										normalCount, "normal", reader);
+						}
+						if (texture != null && textureIndex == -1)
+							throw new IOException("missing texture coordinate "
+									+ "index in the face on line "
+									+ reader.getLineNumber());
+						coordinateIndexes[cornerCount] = vertex;
+						textureIndexes[cornerCount] = textureIndex;
+						cornerCount++;
+
+						// a vertex used with different normals by different
+						// faces gets the average of them, since every vertex
+						// has a single normal.
+						if (normal != -1) {
+							int sum = vertex * 3;
+							if (sum + 3 > normalSums.length)
+								normalSums = Arrays.copyOf(normalSums,
+										Math.max(sum + 3,
+												normalSums.length * 2));
+							normalSums[sum] += normals[normal * 3];
+							normalSums[sum + 1] += normals[normal * 3 + 1];
+							normalSums[sum + 2] += normals[normal * 3 + 2];
+						}
 					}
 
 					// create triangles based on the indicated verticies.
 					// However often verticies are not in sets of 3, so create
 					// multiple triangles if necessary.
-					for (int i = 0; i < coordinateIndexes.length - 2; i++) {
-						if (texture == null)
-							triangles.add(new Triangle(this,
-									vertices.get(coordinateIndexes[0]),
-									vertices.get(coordinateIndexes[i + 1]),
-									vertices.get(coordinateIndexes[i + 2]),
-									color));
-						else
-							triangles.add(new Triangle(this,
-									vertices.get(coordinateIndexes[0]),
-									vertices.get(coordinateIndexes[i + 1]),
-									vertices.get(coordinateIndexes[i + 2]),
-									textureCoords.get(textureIndexes[0]),
-									textureCoords.get(textureIndexes[i + 1]),
-									textureCoords.get(textureIndexes[i + 2])));
+					for (int i = 0; i < cornerCount - 2; i++) {
+						int triangle = addTriangle(coordinateIndexes[0],
+								coordinateIndexes[i + 1],
+								coordinateIndexes[i + 2],
+								baseColor);
+						if (texture != null) {
+							int corner = triangle * 3;
+							if (corner + 3 > cornerTextureIndices.length)
+								cornerTextureIndices = Arrays.copyOf(
+										cornerTextureIndices,
+										triangleIndices.length);
+							cornerTextureIndices[corner] = textureIndexes[0];
+							cornerTextureIndices[corner + 1] = textureIndexes[i + 1];
+							cornerTextureIndices[corner + 2] = textureIndexes[i + 2];
+						}
 					}
 				}
 			}
+		} catch (IOException e) {
+			// the mesh is left empty rather than with part of the file.
+			System.err.println("ERROR at: Mesh/readObjFile() method:\n\tfile "
+					+ file.getName() + " could not be read from "
+					+ file.getAbsolutePath() + ": " + e.getMessage());
+			vertexCount = 0;
+			triangleCount = 0;
+			initializeStorage();
+			return 0;
+		}
+
+		// apply transformations to the vertices and normals based on offset
+		// params. Rotating the summed normals is the same as summing the
+		// rotated ones.
+		rotateVectors(vertices, vertexCount, offsetOrientation, Vector3.ZERO);
+		rotateVectors(normalSums, normalSums.length / 3, offsetOrientation,
+				Vector3.ZERO);
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			vertices[i] *= scale;
+			vertices[i + 1] *= scale;
+			vertices[i + 2] *= scale;
+			if (offsetPosition != null) {
+				vertices[i] += offsetPosition.x;
+				vertices[i + 1] += offsetPosition.y;
+				vertices[i + 2] += offsetPosition.z;
+			}
 		}
-		scanner.close();
+
+		// vertices without a normal in the file get the one calculated from
+		// their triangles.
+		if (normalSums.length > 0) {
+			double[] calculatedNormals = getVertexNormals();
+			for (int i = 0; i < vertexCount * 3; i += 3) {
+				if (i + 2 < normalSums.length && (normalSums[i] != 0
+						|| normalSums[i + 1] != 0 || normalSums[i + 2] != 0))
+					setNormal(calculatedNormals, i, normalSums[i],
+							normalSums[i + 1], normalSums[i + 2]);
+			}
+		}
+
+		// without an offset, the model is centered around its center of mass.
+		if (offsetPosition == null && vertexCount > 0) {
+			double sumX = 0;
+			double sumY = 0;
+			double sumZ = 0;
+			for (int i = 0; i < vertexCount * 3; i += 3) {
+				sumX += vertices[i];
+				sumY += vertices[i + 1];
+				sumZ += vertices[i + 2];
+			}
+			translate(new Vector3(-sumX / vertexCount, -sumY / vertexCount,
+					-sumZ / vertexCount));
+			totalMovement = Vector3.ZERO;
+		}
+
+		// textured triangles take the color of the texture at the center of
+		// their texture coordinates, which is used where the texture itself
+		// isn't drawn.
+		if (texture != null) {
+			textureCoords = Arrays.copyOf(textureCoords, textureCoordCount * 2);
+			for (int i = 0; i < triangleCount; i++) {
+				int t1 = cornerTextureIndices[i * 3] * 2;
+				int t2 = cornerTextureIndices[i * 3 + 1] * 2;
+				int t3 = cornerTextureIndices[i * 3 + 2] * 2;
+				double centerX = (textureCoords[t1] + textureCoords[t2]
+						+ textureCoords[t3]) / 3;
+				double centerY = (textureCoords[t1 + 1] + textureCoords[t2 + 1]
+						+ textureCoords[t3 + 1]) / 3;
+				triangleColors[i] = packedTexture.getColor(centerX, centerY);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * turns an index from a face into an index into the arrays of the mesh.
+	 * Indices in .obj files start at 1, and negative indices count back from
+	 * the last element read so far.
+	 * 
+	 * @param index  the index in the file
+	 * @param count  the number of elements read so far
+	 * @param kind   what the index refers to, for the error message
+	 * @param reader the reader, for the line number in the error message
+	 * @return the index starting at 0
+	 * @throws IOException if the index is 0 or refers to an element that
+	 *                     hasn't been read
+	 */
+	private static int resolveIndex(int index, int count, String kind,
+			ObjReader reader) throws IOException {
+		int resolved = (index < 0) ? count + index : index - 1;
+		if (resolved < 0 || resolved >= count)
+			throw new IOException("invalid " + kind + " index " + index
+					+ " in the face on line " + reader.getLineNumber());
+		return resolved;
 	}
 
 	public static Vector3 centerOfMass(List<Vector3> vertices) {
@@ -0,0 +1,486 @@
+package trrt.rendering3d.gameObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * simplifies a triangle mesh by collapsing edges, using quadric error metrics
+ * (Garland and Heckbert) to decide which edge to collapse next and where to
+ * put the merged vertex.
+ * <p>
+ * Every vertex keeps a quadric: the sum of the squared distances to the planes
+ * of the triangles around it. Collapsing an edge adds the quadrics of its two
+ * vertices, and the cost of the collapse is the value of that quadric at the
+ * new vertex position, so edges on flat areas are removed first. Edges on the
+ * border of an open mesh get extra planes along them so the border keeps its
+ * shape.
+ * <p>
+ * {@link #simplify(int)} can be called several times with smaller and smaller
+ * targets to build a chain of simplified meshes in one pass.
+ */
+public class MeshSimplifier {
+	// how strongly the planes along border edges are weighted, compared to the
+	// planes of the triangles.
+	private static final double BORDER_WEIGHT = 100;
+
+	// collapses which tilt a triangle's normal by more than about 80 degrees
+	// are rejected, since they fold the mesh over itself.
+	private static final double MIN_NORMAL_DOT = 0.2;
+
+	// vertex positions, three per vertex, and the quadric of each vertex as
+	// the 10 unique values of a symmetric 4x4 matrix.
+	private final double[] positions;
+	private final double[] quadrics;
+	private final boolean[] vertexRemoved;
+	private final int[] vertexVersions;
+
+	// the triangles around each vertex. Removed triangles are dropped from
+	// these lists lazily.
+	private final int[][] vertexTriangles;
+	private final int[] vertexTriangleCounts;
+
+	private final int[] triangles;
+	private final boolean[] triangleRemoved;
+	private int remainingTriangles;
+
+	// the largest collapse cost so far.
+	private double maxCost;
+
+	private final PriorityQueue<Collapse> collapses = new PriorityQueue<Collapse>();
+
+	/**
+	 * @param vertices        vertex positions, three values per vertex
+	 * @param vertexCount     the number of vertices
+	 * @param triangleIndices vertex indices of the triangles, three per
+	 *                        triangle
+	 * @param triangleCount   the number of triangles
+	 */
+	public MeshSimplifier(double[] vertices, int vertexCount,
+			int[] triangleIndices, int triangleCount) {
+		positions = Arrays.copyOf(vertices, vertexCount * 3);
+		quadrics = new double[vertexCount * 10];
+		vertexRemoved = new boolean[vertexCount];
+		vertexVersions = new int[vertexCount];
+		triangles = Arrays.copyOf(triangleIndices, triangleCount * 3);
+		triangleRemoved = new boolean[triangleCount];
+		remainingTriangles = triangleCount;
+
+		vertexTriangleCounts = new int[vertexCount];
+		for (int i = 0; i < triangleCount * 3; i++) {
+			vertexTriangleCounts[triangles[i]]++;
+		}
+		vertexTriangles = new int[vertexCount][];
+		for (int i = 0; i < vertexCount; i++) {
+			vertexTriangles[i] = new int[Math.max(4, vertexTriangleCounts[i])];
+			vertexTriangleCounts[i] = 0;
+		}
+		for (int i = 0; i < triangleCount; i++) {
+			for (int j = 0; j < 3; j++) {
+				addVertexTriangle(triangles[i * 3 + j], i);
+			}
+		}
+
+		// counts how many triangles use each edge, to find the border edges.
+		HashMap<Long, Integer> edgeUses = new HashMap<Long, Integer>();
+		for (int i = 0; i < triangleCount; i++) {
+			addPlaneQuadric(i);
+			for (int j = 0; j < 3; j++) {
+				Long key = edgeKey(triangles[i * 3 + j],
+						triangles[i * 3 + (j + 1) % 3]);
+				Integer uses = edgeUses.get(key);
+				edgeUses.put(key, (uses == null) ? 1 : uses + 1);
+			}
+		}
+		for (int i = 0; i < triangleCount; i++) {
+			for (int j = 0; j < 3; j++) {
+				int v1 = triangles[i * 3 + j];
+				int v2 = triangles[i * 3 + (j + 1) % 3];
+				if (edgeUses.get(edgeKey(v1, v2)) == 1)
+					addBorderQuadric(i, v1, v2);
+			}
+		}
+
+		for (Long key : edgeUses.keySet()) {
+			queueCollapse((int) (key >>> 32), (int) (long) key);
+		}
+	}
+
+	/**
+	 * collapses edges until the mesh has at most {@code targetTriangleCount}
+	 * triangles, or until no more edges can be collapsed.
+	 *
+	 * @param targetTriangleCount the number of triangles to stop at
+	 * @return whether the target was reached
+	 */
+	public boolean simplify(int targetTriangleCount) {
+		while (remainingTriangles > targetTriangleCount) {
+			Collapse collapse = collapses.poll();
+			if (collapse == null)
+				return false;
+			// the collapse is out of date if either vertex changed since it
+			// was queued.
+			if (vertexRemoved[collapse.vertex1]
+					|| vertexRemoved[collapse.vertex2]
+					|| vertexVersions[collapse.vertex1] != collapse.version1
+					|| vertexVersions[collapse.vertex2] != collapse.version2)
+				continue;
+			if (foldsOver(collapse))
+				continue;
+			collapse(collapse);
+		}
+		return true;
+	}
+
+	/** @return the number of triangles left */
+	public int getTriangleCount() {
+		return remainingTriangles;
+	}
+
+	/**
+	 * @return an estimate of the largest distance between the simplified mesh
+	 *         and the original mesh, in the same units as the vertices
+	 */
+	public double getError() {
+		return Math.sqrt(Math.max(0, maxCost));
+	}
+
+	/**
+	 * @return the triangles left, as indices into {@link #getVertices()},
+	 *         three per triangle
+	 */
+	public int[] getTriangleIndices() {
+		int[] newIndices = getNewVertexIndices();
+		int[] result = new int[remainingTriangles * 3];
+		int count = 0;
+		for (int i = 0; i < triangleRemoved.length; i++) {
+			if (!triangleRemoved[i]) {
+				for (int j = 0; j < 3; j++) {
+					result[count++] = newIndices[triangles[i * 3 + j]];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return for each triangle left, the index of the triangle in the original
+	 *         mesh it came from
+	 */
+	public int[] getSourceTriangles() {
+		int[] result = new int[remainingTriangles];
+		int count = 0;
+		for (int i = 0; i < triangleRemoved.length; i++) {
+			if (!triangleRemoved[i])
+				result[count++] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the positions of the vertices still used by a triangle, three
+	 *         values per vertex
+	 */
+	public double[] getVertices() {
+		int[] newIndices = getNewVertexIndices();
+		int vertexCount = 0;
+		for (int i = 0; i < newIndices.length; i++) {
+			vertexCount = Math.max(vertexCount, newIndices[i] + 1);
+		}
+		double[] result = new double[vertexCount * 3];
+		for (int i = 0; i < newIndices.length; i++) {
+			if (newIndices[i] >= 0)
+				System.arraycopy(positions, i * 3, result, newIndices[i] * 3,
+						3);
+		}
+		return result;
+	}
+
+	// numbers the vertices still used by a triangle in order, and gives -1 to
+	// the others.
+	private int[] getNewVertexIndices() {
+		int[] newIndices = new int[vertexRemoved.length];
+		Arrays.fill(newIndices, -1);
+		for (int i = 0; i < triangleRemoved.length; i++) {
+			if (!triangleRemoved[i]) {
+				for (int j = 0; j < 3; j++) {
+					newIndices[triangles[i * 3 + j]] = 0;
+				}
+			}
+		}
+		int count = 0;
+		for (int i = 0; i < newIndices.length; i++) {
+			if (newIndices[i] == 0)
+				newIndices[i] = count++;
+		}
+		return newIndices;
+	}
+
+	// #region collapsing
+
+	// merges the second vertex of the collapse into the first.
+	private void collapse(Collapse collapse) {
+		int keep = collapse.vertex1;
+		int remove = collapse.vertex2;
+		positions[keep * 3] = collapse.x;
+		positions[keep * 3 + 1] = collapse.y;
+		positions[keep * 3 + 2] = collapse.z;
+		for (int i = 0; i < 10; i++) {
+			quadrics[keep * 10 + i] += quadrics[remove * 10 + i];
+		}
+		vertexRemoved[remove] = true;
+		vertexVersions[keep]++;
+		maxCost = Math.max(maxCost, collapse.cost);
+
+		// triangles with both vertices disappear, the others are moved over
+		// to the vertex that is kept.
+		for (int i = 0; i < vertexTriangleCounts[remove]; i++) {
+			int triangle = vertexTriangles[remove][i];
+			if (triangleRemoved[triangle])
+				continue;
+			int t = triangle * 3;
+			if (triangles[t] == keep || triangles[t + 1] == keep
+					|| triangles[t + 2] == keep) {
+				triangleRemoved[triangle] = true;
+				remainingTriangles--;
+			} else {
+				for (int j = 0; j < 3; j++) {
+					if (triangles[t + j] == remove)
+						triangles[t + j] = keep;
+				}
+				addVertexTriangle(keep, triangle);
+			}
+		}
+		vertexTriangleCounts[remove] = 0;
+
+		// drops removed triangles from the kept vertex's list, and queues new
+		// collapses for its edges.
+		int count = 0;
+		int[] list = vertexTriangles[keep];
+		for (int i = 0; i < vertexTriangleCounts[keep]; i++) {
+			if (!triangleRemoved[list[i]])
+				list[count++] = list[i];
+		}
+		vertexTriangleCounts[keep] = count;
+		for (int i = 0; i < count; i++) {
+			int t = list[i] * 3;
+			for (int j = 0; j < 3; j++) {
+				if (triangles[t + j] != keep)
+					queueCollapse(keep, triangles[t + j]);
+			}
+		}
+	}
+
+	// would the collapse flip any of the triangles around it?
+	private boolean foldsOver(Collapse collapse) {
+		return foldsOver(collapse.vertex1, collapse.vertex2, collapse)
+				|| foldsOver(collapse.vertex2, collapse.vertex1, collapse);
+	}
+
+	private boolean foldsOver(int vertex, int other, Collapse collapse) {
+		for (int i = 0; i < vertexTriangleCounts[vertex]; i++) {
+			int triangle = vertexTriangles[vertex][i];
+			if (triangleRemoved[triangle])
+				continue;
+			int t = triangle * 3;
+			// triangles on the edge itself are removed by the collapse.
+			if (triangles[t] == other || triangles[t + 1] == other
+					|| triangles[t + 2] == other)
+				continue;
+
+			double[] before = normal(triangles[t], triangles[t + 1],
+					triangles[t + 2], -1, 0, 0, 0);
+			double[] after = normal(triangles[t], triangles[t + 1],
+					triangles[t + 2], vertex, collapse.x, collapse.y,
+					collapse.z);
+			double dot = before[0] * after[0] + before[1] * after[1]
+					+ before[2] * after[2];
+			double lengths = Math.sqrt((before[0] * before[0]
+					+ before[1] * before[1] + before[2] * before[2])
+					* (after[0] * after[0] + after[1] * after[1]
+							+ after[2] * after[2]));
+			if (dot < MIN_NORMAL_DOT * lengths)
+				return true;
+		}
+		return false;
+	}
+
+	// the (unnormalized) normal of a triangle, with one vertex optionally
+	// moved to (x, y, z).
+	private double[] normal(int v1, int v2, int v3, int moved, double x,
+			double y, double z) {
+		double[] p = new double[9];
+		int[] v = { v1, v2, v3 };
+		for (int i = 0; i < 3; i++) {
+			if (v[i] == moved) {
+				p[i * 3] = x;
+				p[i * 3 + 1] = y;
+				p[i * 3 + 2] = z;
+			} else {
+				System.arraycopy(positions, v[i] * 3, p, i * 3, 3);
+			}
+		}
+		double ax = p[3] - p[0], ay = p[4] - p[1], az = p[5] - p[2];
+		double bx = p[6] - p[0], by = p[7] - p[1], bz = p[8] - p[2];
+		return new double[] { ay * bz - az * by, az * bx - ax * bz,
+				ax * by - ay * bx };
+	}
+
+	// calculates the best position and cost of collapsing an edge and queues
+	// it.
+	private void queueCollapse(int vertex1, int vertex2) {
+		double[] q = new double[10];
+		for (int i = 0; i < 10; i++) {
+			q[i] = quadrics[vertex1 * 10 + i] + quadrics[vertex2 * 10 + i];
+		}
+
+		Collapse collapse = new Collapse();
+		collapse.vertex1 = vertex1;
+		collapse.vertex2 = vertex2;
+		collapse.version1 = vertexVersions[vertex1];
+		collapse.version2 = vertexVersions[vertex2];
+
+		// the position with the smallest error solves a 3x3 system. If the
+		// system can't be solved (flat or straight areas), the best of the two
+		// ends and the middle of the edge is used instead.
+		double det = q[0] * (q[4] * q[7] - q[5] * q[5])
+				- q[1] * (q[1] * q[7] - q[5] * q[2])
+				+ q[2] * (q[1] * q[5] - q[4] * q[2]);
+		double scale = Math.abs(q[0]) + Math.abs(q[4]) + Math.abs(q[7]);
+		if (Math.abs(det) > 1e-9 * scale * scale * scale) {
+			double bx = -q[3], by = -q[6], bz = -q[8];
+			collapse.x = (bx * (q[4] * q[7] - q[5] * q[5])
+					- q[1] * (by * q[7] - q[5] * bz)
+					+ q[2] * (by * q[5] - q[4] * bz)) / det;
+			collapse.y = (q[0] * (by * q[7] - bz * q[5])
+					- bx * (q[1] * q[7] - q[5] * q[2])
+					+ q[2] * (q[1] * bz - by * q[2])) / det;
+			collapse.z = (q[0] * (q[4] * bz - q[5] * by)
+					- q[1] * (q[1] * bz - by * q[2])
+					+ bx * (q[1] * q[5] - q[4] * q[2])) / det;
+			collapse.cost = quadricError(q, collapse.x, collapse.y,
+					collapse.z);
+		} else {
+			collapse.cost = Double.MAX_VALUE;
+		}
+
+		int p1 = vertex1 * 3;
+		int p2 = vertex2 * 3;
+		tryPosition(collapse, q, positions[p1], positions[p1 + 1],
+				positions[p1 + 2]);
+		tryPosition(collapse, q, positions[p2], positions[p2 + 1],
+				positions[p2 + 2]);
+		tryPosition(collapse, q, (positions[p1] + positions[p2]) / 2,
+				(positions[p1 + 1] + positions[p2 + 1]) / 2,
+				(positions[p1 + 2] + positions[p2 + 2]) / 2);
+		collapses.add(collapse);
+	}
+
+	// uses the position for the collapse if it has a lower error.
+	private void tryPosition(Collapse collapse, double[] q, double x, double y,
+			double z) {
+		double cost = quadricError(q, x, y, z);
+		if (cost < collapse.cost) {
+			collapse.cost = cost;
+			collapse.x = x;
+			collapse.y = y;
+			collapse.z = z;
+		}
+	}
+
+	// #endregion
+
+	// #region quadrics
+
+	// the value of the quadric at a point, which is the sum of the squared
+	// distances to its planes.
+	private static double quadricError(double[] q, double x, double y,
+			double z) {
+		return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z
+				+ 2 * q[3] * x + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+				+ q[7] * z * z + 2 * q[8] * z + q[9];
+	}
+
+	// adds the plane of a triangle to the quadrics of its vertices.
+	private void addPlaneQuadric(int triangle) {
+		int t = triangle * 3;
+		double[] n = normal(triangles[t], triangles[t + 1], triangles[t + 2],
+				-1, 0, 0, 0);
+		double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+		if (length == 0)
+			return;
+		double a = n[0] / length, b = n[1] / length, c = n[2] / length;
+		int p = triangles[t] * 3;
+		double d = -(a * positions[p] + b * positions[p + 1]
+				+ c * positions[p + 2]);
+		for (int i = 0; i < 3; i++) {
+			addQuadric(triangles[t + i], a, b, c, d, 1);
+		}
+	}
+
+	// adds a plane through a border edge, at a right angle to its triangle, to
+	// the quadrics of the edge's vertices.
+	private void addBorderQuadric(int triangle, int v1, int v2) {
+		int t = triangle * 3;
+		double[] n = normal(triangles[t], triangles[t + 1], triangles[t + 2],
+				-1, 0, 0, 0);
+		double ex = positions[v2 * 3] - positions[v1 * 3];
+		double ey = positions[v2 * 3 + 1] - positions[v1 * 3 + 1];
+		double ez = positions[v2 * 3 + 2] - positions[v1 * 3 + 2];
+		double a = ey * n[2] - ez * n[1];
+		double b = ez * n[0] - ex * n[2];
+		double c = ex * n[1] - ey * n[0];
+		double length = Math.sqrt(a * a + b * b + c * c);
+		if (length == 0)
+			return;
+		a /= length;
+		b /= length;
+		c /= length;
+		double d = -(a * positions[v1 * 3] + b * positions[v1 * 3 + 1]
+				+ c * positions[v1 * 3 + 2]);
+		addQuadric(v1, a, b, c, d, BORDER_WEIGHT);
+		addQuadric(v2, a, b, c, d, BORDER_WEIGHT);
+	}
+
+	private void addQuadric(int vertex, double a, double b, double c,
+			double d, double weight) {
+		int q = vertex * 10;
+		quadrics[q] += weight * a * a;
+		quadrics[q + 1] += weight * a * b;
+		quadrics[q + 2] += weight * a * c;
+		quadrics[q + 3] += weight * a * d;
+		quadrics[q + 4] += weight * b * b;
+		quadrics[q + 5] += weight * b * c;
+		quadrics[q + 6] += weight * b * d;
+		quadrics[q + 7] += weight * c * c;
+		quadrics[q + 8] += weight * c * d;
+		quadrics[q + 9] += weight * d * d;
+	}
+
+	// #endregion
+
+	private void addVertexTriangle(int vertex, int triangle) {
+		if (vertexTriangleCounts[vertex] == vertexTriangles[vertex].length)
+			vertexTriangles[vertex] = Arrays.copyOf(vertexTriangles[vertex],
+					vertexTriangles[vertex].length * 2);
+		vertexTriangles[vertex][vertexTriangleCounts[vertex]++] = triangle;
+	}
+
+	// a key for an edge which is the same for both directions.
+	private static Long edgeKey(int v1, int v2) {
+		return ((long) Math.min(v1, v2) << 32) | Math.max(v1, v2);
+	}
+
+	// a possible edge collapse, ordered by cost.
+	private static class Collapse implements Comparable<Collapse> {
+		private int vertex1, vertex2;
+		private int version1, version2;
+		private double x, y, z;
+		private double cost;
+
+		@Override
+		public int compareTo(Collapse other) {
+			return Double.compare(cost, other.cost);
+		}
+	}
+}
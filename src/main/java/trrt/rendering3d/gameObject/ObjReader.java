@@ -0,0 +1,309 @@
+package trrt.rendering3d.gameObject;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * reads the lines of a .obj file straight from the bytes of the file, without
+ * creating strings. The file is memory mapped, so the operating system pages
+ * it in as it is read, and numbers are parsed from the bytes by hand.
+ * <p>
+ * Files larger than {@link #WINDOW_SIZE} are mapped one window at a time. Each
+ * window ends after its last full line, so a line is never split between two
+ * windows.
+ * <p>
+ * The reader works on one line at a time: {@link #nextLine()} moves to the
+ * start of the next line, and the other methods read the tokens of that line
+ * from left to right. The end of the line, and a {@code #} comment, read as
+ * the end of the line.
+ */
+class ObjReader implements Closeable {
+	// the largest part of the file mapped at once.
+	private static final long WINDOW_SIZE = 1 << 28;
+
+	// numbers with up to this many significant digits fit in a long.
+	private static final int MAX_DIGITS = 18;
+
+	// powers of ten which are exact as doubles. A mantissa below 2^53 divided
+	// or multiplied by one of them is rounded exactly like
+	// Double.parseDouble() would round it.
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final FileChannel channel;
+	private final long size;
+
+	// the mapped window, where it starts in the file, the end of its last full
+	// line and the position of the reader in it.
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int limit;
+	private int position;
+
+	// the number of the current line, counting from 1. 0 before the first
+	// line.
+	private int lineNumber;
+
+	/**
+	 * opens and maps a file
+	 *
+	 * @param file the .obj file
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	public ObjReader(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = channel.size();
+		mapWindow(0);
+	}
+
+	// maps the window starting at a position in the file.
+	private void mapWindow(long start) throws IOException {
+		long length = Math.min(WINDOW_SIZE, size - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		windowStart = start;
+		position = 0;
+		limit = (int) length;
+		if (start + length < size) {
+			while (limit > 0 && window.get(limit - 1) != '\n') {
+				limit--;
+			}
+			if (limit == 0)
+				throw new IOException("line longer than " + WINDOW_SIZE
+						+ " bytes at byte " + start);
+		}
+	}
+
+	/**
+	 * moves to the start of the next line, skipping what is left of the
+	 * current one. The first call moves to the first line.
+	 *
+	 * @return false if there are no more lines
+	 * @throws IOException if the next part of the file can't be mapped
+	 */
+	public boolean nextLine() throws IOException {
+		if (lineNumber > 0) {
+			while (position < limit && window.get(position) != '\n') {
+				position++;
+			}
+			position++;
+		}
+		if (position >= limit) {
+			if (windowStart + limit >= size)
+				return false;
+			mapWindow(windowStart + limit);
+		}
+		lineNumber++;
+		return true;
+	}
+
+	// the byte at the position, or a line break at the end of the window.
+	private int peek() {
+		return (position < limit) ? window.get(position) : '\n';
+	}
+
+	private void skipBlanks() {
+		int b = peek();
+		while (b == ' ' || b == '\t') {
+			position++;
+			b = peek();
+		}
+	}
+
+	/**
+	 * reads the first token of the line if it is the keyword.
+	 *
+	 * @param keyword the keyword, like {@code "v"} or {@code "vt"}
+	 * @return true if the line starts with the keyword, followed by a space or
+	 *         tab. The reader is then after the keyword. If not, the reader is
+	 *         not moved.
+	 */
+	public boolean readKeyword(String keyword) {
+		int length = keyword.length();
+		if (position + length >= limit)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (window.get(position + i) != keyword.charAt(i))
+				return false;
+		}
+		int next = window.get(position + length);
+		if (next != ' ' && next != '\t')
+			return false;
+		position += length;
+		return true;
+	}
+
+	/**
+	 * @return true if there is another token on the line
+	 */
+	public boolean hasToken() {
+		skipBlanks();
+		int b = peek();
+		return b != '\n' && b != '\r' && b != '#';
+	}
+
+	/**
+	 * skips a character if it is next on the line.
+	 *
+	 * @param c the character
+	 * @return true if it was skipped
+	 */
+	public boolean skip(char c) {
+		if (peek() != c)
+			return false;
+		position++;
+		return true;
+	}
+
+	/**
+	 * @return true if the next character starts an integer: a digit or a minus
+	 *         sign
+	 */
+	public boolean hasInt() {
+		int b = peek();
+		return (b >= '0' && b <= '9') || b == '-';
+	}
+
+	/**
+	 * reads an integer, like the indices of a face. An integer too large for
+	 * an int reads as {@code Integer.MAX_VALUE}, or {@code -Integer.MAX_VALUE}
+	 * if it is negative, instead of wrapping around.
+	 *
+	 * @return the integer, or 0 if there are no digits
+	 */
+	public int readInt() {
+		boolean negative = skip('-');
+		int value = 0;
+		int b = peek();
+		while (b >= '0' && b <= '9') {
+			int digit = b - '0';
+			value = (value > (Integer.MAX_VALUE - digit) / 10)
+					? Integer.MAX_VALUE
+					: value * 10 + digit;
+			position++;
+			b = peek();
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * reads the next token as a decimal number, with an optional exponent. The
+	 * result is the same as {@link Double#parseDouble(String)}. Numbers with
+	 * more than {@value #MAX_DIGITS} significant digits, or an exponent out of
+	 * the range of exact powers of ten, are passed to it.
+	 *
+	 * @return the number
+	 * @throws NumberFormatException if the token is not a number
+	 */
+	public double readDouble() {
+		skipBlanks();
+		int start = position;
+		boolean negative = skip('-');
+		if (!negative)
+			skip('+');
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean anyDigits = false;
+		int b = peek();
+		while (b >= '0' && b <= '9') {
+			anyDigits = true;
+			if (digits < MAX_DIGITS) {
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa != 0)
+					digits++;
+			} else {
+				exponent++;
+				exact &= b == '0';
+			}
+			position++;
+			b = peek();
+		}
+		if (b == '.') {
+			position++;
+			b = peek();
+			while (b >= '0' && b <= '9') {
+				anyDigits = true;
+				if (digits < MAX_DIGITS) {
+					mantissa = mantissa * 10 + (b - '0');
+					exponent--;
+					if (mantissa != 0)
+						digits++;
+				} else {
+					exact &= b == '0';
+				}
+				position++;
+				b = peek();
+			}
+		}
+		if (anyDigits && (b == 'e' || b == 'E')) {
+			position++;
+			boolean negativeExponent = skip('-');
+			if (!negativeExponent)
+				skip('+');
+			int value = 0;
+			b = peek();
+			while (b >= '0' && b <= '9') {
+				if (value < 100000)
+					value = value * 10 + (b - '0');
+				position++;
+				b = peek();
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+
+		b = peek();
+		boolean tokenEnded = b == ' ' || b == '\t' || b == '\n' || b == '\r'
+				|| b == '#';
+		if (anyDigits && tokenEnded && exact && mantissa < (1L << 53)
+				&& exponent >= -22 && exponent <= 22) {
+			double value = (exponent < 0)
+					? mantissa / POWERS_OF_TEN[-exponent]
+					: mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		return parseSlowly(start);
+	}
+
+	// parses the token starting at a position with Double.parseDouble(), for
+	// the numbers the fast path can't round exactly.
+	private double parseSlowly(int start) {
+		position = start;
+		int b = peek();
+		while (b != ' ' && b != '\t' && b != '\n' && b != '\r' && b != '#') {
+			position++;
+			b = peek();
+		}
+		byte[] token = new byte[position - start];
+		for (int i = 0; i < token.length; i++) {
+			token[i] = window.get(start + i);
+		}
+		return Double.parseDouble(new String(token, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * @return the number of the current line, counting from 1
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
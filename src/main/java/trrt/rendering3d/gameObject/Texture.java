@@ -0,0 +1,164 @@
+package trrt.rendering3d.gameObject;
+
+import java.awt.image.BufferedImage;
+import java.io.Serializable;
+
+/**
+ * an image prepared for texture mapping. The pixels are stored as packed rgb
+ * ints in one array, row by row from the bottom of the image, so a texture
+ * coordinate (u, v) maps straight to column u * width and row v * height. The
+ * width and height are powers of two, so the rasterizer can wrap coordinates
+ * outside 0 to 1 with a bit mask and find a pixel with a shift, without any
+ * division or bounds check.
+ * <p>
+ * The texture also has mipmaps: smaller copies of itself, each half the width
+ * and height of the one before, down to a single pixel. The rasterizer samples
+ * the level closest to one texel per pixel, so far away triangles read a small
+ * level that stays in the cache instead of skipping over a large one, which
+ * also keeps them from flickering.
+ */
+public class Texture implements Serializable {
+	private static final long serialVersionUID = 1;
+
+	/**
+	 * added to a texel coordinate before it is cast to an int, so the cast
+	 * rounds negative coordinates down like {@link Math#floor(double)} instead
+	 * of toward zero. It is a multiple of the size of every texture, so it
+	 * doesn't change which pixel a coordinate wraps to, as long as the
+	 * coordinate is within 2^30 texels of the texture.
+	 */
+	public static final double TEXEL_BIAS = 1 << 30;
+
+	// the pixels, width, height and base 2 logarithm of the width of every
+	// level, starting with the full size texture.
+	private int[][] levels;
+	private int[] widths;
+	private int[] heights;
+	private int[] widthShifts;
+
+	/**
+	 * converts an image into a texture. Images whose sides are not powers of
+	 * two are scaled up to the next power of two.
+	 *
+	 * @param image the texture image
+	 */
+	public Texture(BufferedImage image) {
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		int[] imagePixels = image.getRGB(0, 0, imageWidth, imageHeight, null,
+				0, imageWidth);
+
+		int width = nextPowerOfTwo(imageWidth);
+		int height = nextPowerOfTwo(imageHeight);
+		int widthShift = Integer.numberOfTrailingZeros(width);
+		int[] pixels = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			// the rows are flipped, since v goes up and image rows go down.
+			int imageRow = (imageHeight - 1 - (int) ((long) y * imageHeight
+					/ height)) * imageWidth;
+			for (int x = 0; x < width; x++) {
+				pixels[(y << widthShift) + x] = imagePixels[imageRow
+						+ (int) ((long) x * imageWidth / width)] & 0xFFFFFF;
+			}
+		}
+
+		int levelCount = Integer.numberOfTrailingZeros(Math.max(width, height))
+				+ 1;
+		levels = new int[levelCount][];
+		widths = new int[levelCount];
+		heights = new int[levelCount];
+		widthShifts = new int[levelCount];
+		levels[0] = pixels;
+		widths[0] = width;
+		heights[0] = height;
+		widthShifts[0] = widthShift;
+		for (int i = 1; i < levelCount; i++) {
+			createLevel(i);
+		}
+	}
+
+	// creates a level from the level before it. Each pixel is the average of
+	// the 2 by 2 pixels it covers, or of 2 pixels once one side is already a
+	// single pixel long.
+	private void createLevel(int level) {
+		int[] source = levels[level - 1];
+		int sourceShift = widthShifts[level - 1];
+		int stepX = (widths[level - 1] > 1) ? 1 : 0;
+		int stepY = (heights[level - 1] > 1) ? 1 << sourceShift : 0;
+		int width = Math.max(1, widths[level - 1] / 2);
+		int height = Math.max(1, heights[level - 1] / 2);
+		int widthShift = Integer.numberOfTrailingZeros(width);
+		int[] pixels = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = (y << (sourceShift + 1)) + (x << 1);
+				int a = source[i];
+				int b = source[i + stepX];
+				int c = source[i + stepY];
+				int d = source[i + stepY + stepX];
+				// red and blue are added together, since the sum of four
+				// channels fits in the 8 bits between them.
+				int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF)
+						+ (d & 0xFF00FF) + 0x020002;
+				int green = (a & 0xFF00) + (b & 0xFF00) + (c & 0xFF00)
+						+ (d & 0xFF00) + 0x0200;
+				pixels[(y << widthShift) + x] = ((redBlue >> 2) & 0xFF00FF)
+						| ((green >> 2) & 0xFF00);
+			}
+		}
+		levels[level] = pixels;
+		widths[level] = width;
+		heights[level] = height;
+		widthShifts[level] = widthShift;
+	}
+
+	private static int nextPowerOfTwo(int value) {
+		return (value <= 1) ? 1 : Integer.highestOneBit(value - 1) << 1;
+	}
+
+	/**
+	 * @param u the horizontal texture coordinate, wrapped to 0 to 1
+	 * @param v the vertical texture coordinate, wrapped to 0 to 1
+	 * @return the packed rgb color of the pixel at the texture coordinate
+	 */
+	public int getColor(double u, double v) {
+		int x = (int) (u * widths[0] + TEXEL_BIAS) & (widths[0] - 1);
+		int y = (int) (v * heights[0] + TEXEL_BIAS) & (heights[0] - 1);
+		return levels[0][(y << widthShifts[0]) + x];
+	}
+
+	// #region getter methods
+	/**
+	 * @return the number of mipmap levels, including the full size texture
+	 */
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * @param level the mipmap level, 0 being the full size texture
+	 * @return the packed rgb pixels of the level, row by row from the bottom.
+	 *         The pixel at column x and row y is at
+	 *         {@code (y << getWidthShift(level)) + x}.
+	 */
+	public int[] getPixels(int level) {
+		return levels[level];
+	}
+
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	/**
+	 * @param level the mipmap level
+	 * @return the base 2 logarithm of the width of the level
+	 */
+	public int getWidthShift(int level) {
+		return widthShifts[level];
+	}
+	// #endregion
+}
@@ -3,9 +3,16 @@ package trrt.rendering3d.gameObject;
 import java.io.Serializable;
 
 import trrt.rendering3d.primitives.Matrix3x3;
+import trrt.rendering3d.primitives.Matrix4x4;
 import trrt.rendering3d.primitives.Quaternion;
 import trrt.rendering3d.primitives.Vector3;
 
+/**
+ * the position and rotation of a game object. The mesh of the game object is
+ * stored in local space and never changed by the transform, so many game
+ * objects can share one mesh. The renderer places each of them in the world
+ * with {@link #getLocalToWorldMatrix()} while it projects the vertices.
+ */
 public class Transform implements Serializable {
 	private static final long serialVersionUID = 1;
 
@@ -36,6 +43,16 @@ public class Transform implements Serializable {
 	/** the quaternion rotation of the transform */
 	private Quaternion rotation;
 
+	/**
+	 * the rotation and local to world matrices, which are only rebuilt when
+	 * they are asked for after the transform moved or rotated. The renderer
+	 * asks for them every frame, so a transform which doesn't move only builds
+	 * them once.
+	 */
+	private transient Matrix3x3 rotationMatrix;
+	private transient Matrix4x4 localToWorldMatrix;
+	private transient boolean matricesValid;
+
 	/** default rotation always {@link Quaternion#IDENTITY} */
 	public Transform(Vector3 positionIn) {
 		position = positionIn;
@@ -46,21 +63,60 @@ public class Transform implements Serializable {
 	}
 
 	public void setPosition(Vector3 positionIn) {
-		gameObject.getMesh().translate(positionIn.subtract(position));
 		position = positionIn;
+		matricesValid = false;
+		gameObject.boundsChanged();
 	}
 
 	public void move(Vector3 amount) {
-		gameObject.getMesh().translate(amount);
 		position = Vector3.add(position, amount);
+		matricesValid = false;
+		gameObject.boundsChanged();
 	}
 
+	/**
+	 * rotates the transform around its position, in world space.
+	 * 
+	 * @param q the rotation
+	 */
 	public void rotate(Quaternion q) {
 		rotation = rotation.multiply(q);
-		gameObject.getMesh().rotate(q, position);
-		forward.rotate(q);
-		right.rotate(q);
-		up.rotate(q);
+		forward = forward.rotate(q);
+		right = right.rotate(q);
+		up = up.rotate(q);
+		matricesValid = false;
+		gameObject.rotationChanged();
+		gameObject.boundsChanged();
+	}
+
+	/**
+	 * @return the rotation of the transform as a matrix, whose columns are the
+	 *         right, up and forward vectors. Multiplying a direction in local
+	 *         space by it gives the direction in world space.
+	 */
+	public Matrix3x3 getRotationMatrix() {
+		if (!matricesValid)
+			updateMatrices();
+		return rotationMatrix;
+	}
+
+	/**
+	 * @return a matrix which rotates a point in local space and then moves it
+	 *         to the position of the transform, giving the point in world
+	 *         space
+	 */
+	public Matrix4x4 getLocalToWorldMatrix() {
+		if (!matricesValid)
+			updateMatrices();
+		return localToWorldMatrix;
+	}
+
+	// rebuilds the rotation and local to world matrices from the direction
+	// vectors and the position.
+	private void updateMatrices() {
+		rotationMatrix = new Matrix3x3(getRight(), getUp(), getForward());
+		localToWorldMatrix = new Matrix4x4(rotationMatrix, position);
+		matricesValid = true;
 	}
 
 	/**
@@ -74,10 +130,7 @@ public class Transform implements Serializable {
 	 * @return the world space coordinate
 	 */
 	public Vector3 transformToWorld(Vector3 point) {
-		up = up.getNormalized();
-		forward = forward.getNormalized();
-		right = right.getNormalized();
-		return point.multiply(new Matrix3x3(right, up, forward));
+		return point.multiply(getRotationMatrix());
 	}
 
 	/**
@@ -88,10 +141,7 @@ public class Transform implements Serializable {
 	 * @return the equivilant point in local space
 	 */
 	public Vector3 transformToLocal(Vector3 point) {
-		up = up.getNormalized();
-		forward = forward.getNormalized();
-		right = right.getNormalized();
-		return point.multiply(new Matrix3x3(right, up, forward).getInverse());
+		return point.multiply(getRotationMatrix().getInverse());
 	}
 
 	// #region getter/setter methods
@@ -111,6 +161,10 @@ public class Transform implements Serializable {
 		return position;
 	}
 
+	public Quaternion getRotation() {
+		return rotation;
+	}
+
 	public GameObject getGameObject() {
 		return gameObject;
 	}
@@ -7,10 +7,13 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.util.Arrays;
 
 import javax.swing.JPanel;
 
 import trrt.rendering3d.gameObject.GameObject;
+import trrt.rendering3d.primitives.Matrix4x4;
+import trrt.rendering3d.primitives.Plane;
 import trrt.rendering3d.primitives.Vector3;
 
 public class Camera {
@@ -51,6 +54,56 @@ public class Camera {
 	/** width of the render plane based off fov. */
 	private double renderPlaneWidth;
 
+	/**
+	 * transforms world space into camera space, where x points right, y
+	 * points up and z points in the direction the camera is facing.
+	 */
+	private Matrix4x4 viewMatrix = Matrix4x4.IDENTITY;
+
+	/**
+	 * transforms camera space into screen space. After the perspective divide
+	 * x and y are pixel coordinates and z is the inverse depth.
+	 */
+	private Matrix4x4 projectionMatrix = Matrix4x4.IDENTITY;
+
+	/** the view and projection matrix combined into one */
+	private Matrix4x4 viewProjectionMatrix = Matrix4x4.IDENTITY;
+
+	/**
+	 * the values of the view, projection and view projection matrices, row by
+	 * row. The matrices are rebuilt in these arrays, and the matrix objects
+	 * are only created again when one of the getters asks for them, so a
+	 * moving camera doesn't create any objects either.
+	 */
+	private final double[] viewValues = identityValues();
+	private final double[] projectionValues = identityValues();
+	private final double[] viewProjectionValues = identityValues();
+
+	/**
+	 * the six planes of the view frustum in world space, in the order left,
+	 * right, top, bottom, near, far. Their normals point into the frustum.
+	 */
+	private Plane[] frustumPlanes = new Plane[0];
+
+	/**
+	 * the same planes as {@link #frustumPlanes} stored as the a, b, c and d
+	 * values of {@code ax + by + cz + d = 0}, four per plane, so points can be
+	 * tested against them without creating any objects.
+	 */
+	private double[] frustumPlaneValues = new double[24];
+
+	/**
+	 * the position, angles, render plane width and screen size the matrices
+	 * were last built with. The matrices are only rebuilt when one of them
+	 * changed, so a camera standing still skips the work.
+	 */
+	private Vector3 matricesPosition;
+	private double matricesHAngle;
+	private double matricesVAngle;
+	private double matricesRenderPlaneWidth;
+	private int matricesScreenWidth;
+	private int matricesScreenHeight;
+
 	public Camera(Vector3 positionIn, double farClipDistanceIn,
 			double nearClipDistanceIn, double fovIn) {
 		renderPlaneDistance = 50;
@@ -342,6 +395,133 @@ public class Camera {
 		panel.addMouseMotionListener(freeCamController);
 	}
 
+	/**
+	 * rebuilds the view and projection matrices from the current position,
+	 * orientation and fov of the camera. Should be called once per frame
+	 * before any vertices are projected. Nothing is rebuilt if the camera
+	 * and the screen size didn't change since the last call.
+	 * 
+	 * @param screenWidth  width of the screen in pixels
+	 * @param screenHeight height of the screen in pixels
+	 */
+	public void updateMatrices(int screenWidth, int screenHeight) {
+		if (position == matricesPosition && hAngle == matricesHAngle
+				&& vAngle == matricesVAngle
+				&& renderPlaneWidth == matricesRenderPlaneWidth
+				&& screenWidth == matricesScreenWidth
+				&& screenHeight == matricesScreenHeight)
+			return;
+		matricesPosition = position;
+		matricesHAngle = hAngle;
+		matricesVAngle = vAngle;
+		matricesRenderPlaneWidth = renderPlaneWidth;
+		matricesScreenWidth = screenWidth;
+		matricesScreenHeight = screenHeight;
+
+		double sinH = Math.sin(hAngle);
+		double cosH = Math.cos(hAngle);
+		double sinV = Math.sin(vAngle);
+		double cosV = Math.cos(vAngle);
+
+		// the axes of camera space in world space. forward is the same as
+		// directionVector, and up is forward cross right.
+		double rightX = cosH, rightY = 0, rightZ = -sinH;
+		double upX = -sinH * sinV, upY = cosV, upZ = -cosH * sinV;
+		double forwardX = sinH * cosV, forwardY = sinV, forwardZ = cosH * cosV;
+
+		double[] v = viewValues;
+		v[0] = rightX;
+		v[1] = rightY;
+		v[2] = rightZ;
+		v[3] = -(rightX * position.x + rightY * position.y
+				+ rightZ * position.z);
+		v[4] = upX;
+		v[5] = upY;
+		v[6] = upZ;
+		v[7] = -(upX * position.x + upY * position.y + upZ * position.z);
+		v[8] = forwardX;
+		v[9] = forwardY;
+		v[10] = forwardZ;
+		v[11] = -(forwardX * position.x + forwardY * position.y
+				+ forwardZ * position.z);
+		v[12] = 0;
+		v[13] = 0;
+		v[14] = 0;
+		v[15] = 1;
+
+		// distance from the camera to a render plane that is exactly one pixel
+		// per unit wide. w becomes the depth, and z is kept at 1 so it turns
+		// into the inverse depth after the divide.
+		double focalLength = screenWidth / renderPlaneWidth
+				* renderPlaneDistance;
+		double[] p = projectionValues;
+		Arrays.fill(p, 0);
+		p[0] = focalLength;
+		p[2] = screenWidth / 2;
+		p[5] = -focalLength;
+		p[6] = screenHeight / 2;
+		p[11] = 1;
+		p[14] = 1;
+
+		multiply(projectionValues, viewValues, viewProjectionValues);
+		updateFrustumPlanes(screenWidth, screenHeight);
+		viewMatrix = null;
+		projectionMatrix = null;
+		viewProjectionMatrix = null;
+		frustumPlanes = null;
+	}
+
+	private static double[] identityValues() {
+		return new double[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+	}
+
+	// multiplies the matrix a by the matrix b, both stored row by row, in the
+	// same order as Matrix4x4.multiply().
+	private static void multiply(double[] a, double[] b, double[] output) {
+		for (int row = 0; row < 16; row += 4) {
+			for (int column = 0; column < 4; column++) {
+				output[row + column] = a[row] * b[column]
+						+ a[row + 1] * b[column + 4]
+						+ a[row + 2] * b[column + 8]
+						+ a[row + 3] * b[column + 12];
+			}
+		}
+	}
+
+	private static Matrix4x4 toMatrix(double[] v) {
+		return new Matrix4x4(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7],
+				v[8], v[9], v[10], v[11], v[12], v[13], v[14], v[15]);
+	}
+
+	// extracts the frustum planes from the rows of the view projection
+	// matrix. A point is on the screen when 0 <= x / w <= width and
+	// 0 <= y / w <= height, which gives four planes, and w is the depth which
+	// gives the near and far planes.
+	private void updateFrustumPlanes(int screenWidth, int screenHeight) {
+		double[] m = viewProjectionValues;
+		setFrustumPlane(0, m[0], m[1], m[2], m[3]);
+		setFrustumPlane(1, screenWidth * m[12] - m[0],
+				screenWidth * m[13] - m[1], screenWidth * m[14] - m[2],
+				screenWidth * m[15] - m[3]);
+		setFrustumPlane(2, m[4], m[5], m[6], m[7]);
+		setFrustumPlane(3, screenHeight * m[12] - m[4],
+				screenHeight * m[13] - m[5], screenHeight * m[14] - m[6],
+				screenHeight * m[15] - m[7]);
+		setFrustumPlane(4, m[12], m[13], m[14], m[15] - nearClipDistance);
+		setFrustumPlane(5, -m[12], -m[13], -m[14], farClipDistance - m[15]);
+	}
+
+	// stores a frustum plane, normalized so that ax + by + cz + d is the
+	// distance of a point from the plane.
+	private void setFrustumPlane(int index, double a, double b, double c,
+			double d) {
+		double length = Math.sqrt(a * a + b * b + c * c);
+		frustumPlaneValues[index * 4] = a / length;
+		frustumPlaneValues[index * 4 + 1] = b / length;
+		frustumPlaneValues[index * 4 + 2] = c / length;
+		frustumPlaneValues[index * 4 + 3] = d / length;
+	}
+
 	// calculates the render plane width, which is a slightly expensive method,
 	// so it is only called once.
 	private double calculateRenderPlaneWidth() {
@@ -395,9 +575,82 @@ public class Camera {
 		return position;
 	}
 
+	/**
+	 * moves the camera without changing the direction it faces
+	 * 
+	 * @param positionIn the new position in world space
+	 */
+	public void setPosition(Vector3 positionIn) {
+		position = positionIn;
+	}
+
 	public double getRenderPlaneWidth() {
 		return renderPlaneWidth;
 	}
 
+	public Matrix4x4 getViewMatrix() {
+		if (viewMatrix == null)
+			viewMatrix = toMatrix(viewValues);
+		return viewMatrix;
+	}
+
+	public Matrix4x4 getProjectionMatrix() {
+		if (projectionMatrix == null)
+			projectionMatrix = toMatrix(projectionValues);
+		return projectionMatrix;
+	}
+
+	public Matrix4x4 getViewProjectionMatrix() {
+		if (viewProjectionMatrix == null)
+			viewProjectionMatrix = toMatrix(viewProjectionValues);
+		return viewProjectionMatrix;
+	}
+
+	/**
+	 * @return the values of the projection matrix, row by row. The array is
+	 *         reused every frame and should not be modified.
+	 */
+	public double[] getProjectionValues() {
+		return projectionValues;
+	}
+
+	/**
+	 * @return the values of the view projection matrix, row by row. The array
+	 *         is reused every frame and should not be modified.
+	 */
+	public double[] getViewProjectionValues() {
+		return viewProjectionValues;
+	}
+
+	/**
+	 * @return the six planes of the view frustum for the current frame, in
+	 *         the order left, right, top, bottom, near, far. The normals of the
+	 *         planes point into the frustum.
+	 */
+	public Plane[] getFrustumPlanes() {
+		if (frustumPlanes == null) {
+			frustumPlanes = new Plane[6];
+			for (int i = 0; i < 6; i++) {
+				Vector3 normal = new Vector3(frustumPlaneValues[i * 4],
+						frustumPlaneValues[i * 4 + 1],
+						frustumPlaneValues[i * 4 + 2]);
+				frustumPlanes[i] = new Plane(Vector3.multiply(normal,
+						-frustumPlaneValues[i * 4 + 3]), normal);
+			}
+		}
+		return frustumPlanes.clone();
+	}
+
+	/**
+	 * @return the frustum planes as a, b, c and d values of
+	 *         {@code ax + by + cz + d = 0}, four per plane in the same order as
+	 *         {@link #getFrustumPlanes()}. {@code ax + by + cz + d} is the
+	 *         distance of a point from the plane, positive inside the frustum.
+	 *         The array is reused every frame and should not be modified.
+	 */
+	public double[] getFrustumPlaneValues() {
+		return frustumPlaneValues;
+	}
+
 	// #endregion
 }
@@ -1,18 +1,29 @@
 package trrt.rendering3d.graphics;
-import java.util.ArrayList;
 
-import trrt.rendering3d.gameObject.*;
 import trrt.rendering3d.primitives.*;
 public class Lighting
 {
     /**direction that the light faces. */
-    public Vector3 lightDirection;
+    private Vector3 lightDirection;
 
     /**how bright should the illuminated side of meshes be? */
-    public double lightIntensity; 
+    private double lightIntensity; 
 
     /**how dark should the unilluminated side of meshes be? */
-    public double shadowIntensity;
+    private double shadowIntensity;
+
+    /**
+     * counts the changes made to the lighting. Game objects remember the version their lit colors were calculated with, and
+     * only calculate them again once it changed.
+     */
+    private int version;
+
+    /**
+     * the brightness for {@value #BRIGHTNESS_TABLE_SIZE} + 1 evenly spaced values of the cosine of the angle between a
+     * normal and the light, from -1 to 1. It only depends on the intensities, so it is rebuilt when they change.
+     */
+    private int[] brightnessTable;
+    private static final int BRIGHTNESS_TABLE_SIZE = 4096;
 
     /**
      * creates a lighting object 
@@ -25,19 +36,131 @@ public class Lighting
         lightDirection = lightDirectionIn.getNormalized();
         lightIntensity = lightIntensityIn;
         shadowIntensity = shadowIntensityIn;
+        buildBrightnessTable();
     }
 
     /**
-     * goes through the specified meshes and updates all their lightings 
-     * @param objects the objects to update
+     * fills a new brightness table for the current intensities. Surfaces facing the light are brightened and surfaces
+     * facing away are darkened, in proportion to how far the angle is from 90 degrees.
      */
-    public void update(ArrayList<GameObject> objects)
+    private void buildBrightnessTable()
     {
-        for (int i = 0; i < objects.size(); i++)
+        int[] table = new int[BRIGHTNESS_TABLE_SIZE + 1];
+        for (int i = 0; i <= BRIGHTNESS_TABLE_SIZE; i++)
         {
-            if (objects.get(i).getMesh() != null)
-                objects.get(i).getMesh().calculateLighting(this);
+            double angle = Math.acos(Math.max(-1, Math.min(1, 2.0 * i / BRIGHTNESS_TABLE_SIZE - 1)));
+            int brightness = 0;
+            int darkness = 0;
+            if (angle > Math.PI / 2)
+                brightness = (int) (Math.abs(angle / (Math.PI) - 0.5) * (lightIntensity / 100) * 255);
+
+            if (angle < Math.PI / 2)
+                darkness = (int) (Math.abs(angle / (Math.PI) - 0.5) * (shadowIntensity / 100) * 255);
+            table[i] = brightness - darkness;
         }
+        brightnessTable = table;
+    }
+
+    /**
+     * calculates the color of a surface under this lighting, based on the angle
+     * between its normal and the direction of the light.
+     * @param rgb the packed rgb color of the surface before lighting
+     * @param normalX x component of a vector normal to the surface, which doesn't have to be normalized
+     * @param normalY y component of the normal
+     * @param normalZ z component of the normal
+     * @return the packed rgb color of the surface with lighting
+     */
+    public int calculateLitColor(int rgb, double normalX, double normalY, double normalZ)
+    {
+        return brighten(rgb, calculateBrightness(normalX, normalY, normalZ));
+    }
+
+    /**
+     * calculates how much brighter (or darker, if negative) this lighting makes a surface, based on the angle between its
+     * normal and the direction of the light. The cosine of the angle is looked up in the brightness table, so no angle has
+     * to be calculated. Unit normals, like the ones of meshes, don't have to be normalized first either.
+     * @param normalX x component of a vector normal to the surface, which doesn't have to be normalized
+     * @param normalY y component of the normal
+     * @param normalZ z component of the normal
+     * @return the amount added to each color channel of the surface
+     */
+    public int calculateBrightness(double normalX, double normalY, double normalZ)
+    {
+        double cos = lightDirection.x * normalX + lightDirection.y * normalY + lightDirection.z * normalZ;
+        double lengthSquared = normalX * normalX + normalY * normalY + normalZ * normalZ;
+        if (lengthSquared == 0)
+            return 0;
+        if (Math.abs(lengthSquared - 1) > 1e-9)
+            cos /= Math.sqrt(lengthSquared);
+        int index = (int) ((cos + 1) * (BRIGHTNESS_TABLE_SIZE / 2) + 0.5);
+        return brightnessTable[Math.max(0, Math.min(BRIGHTNESS_TABLE_SIZE, index))];
+    }
+
+    /**
+     * adds the same amount to every channel of a color.
+     * @param rgb the packed rgb color
+     * @param brightness the amount to add, which can be negative
+     * @return the packed rgb color with every channel clamped to 0 to 255
+     */
+    public static int brighten(int rgb, int brightness)
+    {
+        int red = ((rgb >> 16) & 255) + brightness;
+        int green = ((rgb >> 8) & 255) + brightness;
+        int blue = (rgb & 255) + brightness;
+
+        // clamp values
+        red = Math.max(0, Math.min(red, 255));
+        green = Math.max(0, Math.min(green, 255));
+        blue = Math.max(0, Math.min(blue, 255));
+
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    //#region getter/setter methods
+    public Vector3 getLightDirection()
+    {
+        return lightDirection;
+    }
+
+    /**
+     * @param lightDirectionIn direction of light, which will be normalized automatically
+     */
+    public void setLightDirection(Vector3 lightDirectionIn)
+    {
+        lightDirection = lightDirectionIn.getNormalized();
+        version++;
+    }
+
+    public double getLightIntensity()
+    {
+        return lightIntensity;
     }
-}
 
+    public void setLightIntensity(double lightIntensityIn)
+    {
+        lightIntensity = lightIntensityIn;
+        buildBrightnessTable();
+        version++;
+    }
+
+    public double getShadowIntensity()
+    {
+        return shadowIntensity;
+    }
+
+    public void setShadowIntensity(double shadowIntensityIn)
+    {
+        shadowIntensity = shadowIntensityIn;
+        buildBrightnessTable();
+        version++;
+    }
+
+    /**
+     * @return a number which changes every time the lighting is changed
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+    //#endregion
+}
@@ -0,0 +1,143 @@
+package trrt.rendering3d.graphics;
+
+import trrt.rendering3d.primitives.*;
+
+/**
+ * a light which shines in every direction from a point, and only reaches as far as its range. It brightens surfaces facing
+ * it, more the closer they are. Add it to a {@link RenderingPanel} with {@link RenderingPanel#addLight(PointLight)}.
+ */
+public class PointLight
+{
+    /**position of the light in world space. */
+    private Vector3 position;
+
+    /**how far the light reaches. */
+    private double range;
+
+    /**how bright should surfaces right next to the light and facing it be? */
+    private double intensity;
+
+    /**
+     * counts the changes made to the light, so game objects it shines on know when to calculate their lit colors again.
+     */
+    private int version;
+
+    /**
+     * creates a point light
+     * @param positionIn position of the light in world space
+     * @param rangeIn how far the light reaches
+     * @param intensityIn how bright surfaces right next to the light become, like {@link Lighting}'s light intensity
+     */
+    public PointLight(Vector3 positionIn, double rangeIn, double intensityIn)
+    {
+        position = positionIn;
+        range = rangeIn;
+        intensity = intensityIn;
+    }
+
+    /**
+     * calculates how much this light brightens a surface. The brightness falls off with the cosine of the angle the light
+     * arrives at, from dot products with no trigonometry, and linearly with the distance up to the range.
+     * @param x x coordinate of the surface in world space
+     * @param y y coordinate of the surface
+     * @param z z coordinate of the surface
+     * @param normalX x component of the normalized normal of the surface in world space
+     * @param normalY y component of the normal
+     * @param normalZ z component of the normal
+     * @return the amount added to each color channel of the surface
+     */
+    public int calculateBrightness(double x, double y, double z, double normalX, double normalY, double normalZ)
+    {
+        double toLightX = position.x - x;
+        double toLightY = position.y - y;
+        double toLightZ = position.z - z;
+        double sqrDistance = toLightX * toLightX + toLightY * toLightY + toLightZ * toLightZ;
+        if (sqrDistance >= range * range)
+            return 0;
+
+        double distance = Math.sqrt(sqrDistance);
+        double facing = normalX * toLightX + normalY * toLightY + normalZ * toLightZ;
+        if (facing <= 0 || distance == 0)
+            return 0;
+
+        double cosAngle = facing / distance;
+        double falloff = 1 - distance / range;
+        return (int) (cosAngle * falloff * getConeFactor(toLightX / distance, toLightY / distance, toLightZ / distance)
+            * (intensity / 100) * 255);
+    }
+
+    /**
+     * @param toLightX x component of the normalized direction from a surface to the light
+     * @param toLightY y component of the direction
+     * @param toLightZ z component of the direction
+     * @return how much of the light reaches the surface in that direction, from 0 to 1. A point light reaches every direction.
+     */
+    protected double getConeFactor(double toLightX, double toLightY, double toLightZ)
+    {
+        return 1;
+    }
+
+    /**
+     * does the light reach any part of a sphere?
+     * @param center the center of the sphere in world space
+     * @param radius the radius of the sphere
+     * @return false if every point of the sphere is out of the light's range
+     */
+    public boolean reachesSphere(Vector3 center, double radius)
+    {
+        double x = center.x - position.x;
+        double y = center.y - position.y;
+        double z = center.z - position.z;
+        double reach = range + radius;
+        return x * x + y * y + z * z < reach * reach;
+    }
+
+    // should be called by every setter, including those of subclasses.
+    protected void changed()
+    {
+        version++;
+    }
+
+    //#region getter/setter methods
+    public Vector3 getPosition()
+    {
+        return position;
+    }
+
+    public void setPosition(Vector3 positionIn)
+    {
+        position = positionIn;
+        changed();
+    }
+
+    public double getRange()
+    {
+        return range;
+    }
+
+    public void setRange(double rangeIn)
+    {
+        range = rangeIn;
+        changed();
+    }
+
+    public double getIntensity()
+    {
+        return intensity;
+    }
+
+    public void setIntensity(double intensityIn)
+    {
+        intensity = intensityIn;
+        changed();
+    }
+
+    /**
+     * @return a number which changes every time the light is changed
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+    //#endregion
+}
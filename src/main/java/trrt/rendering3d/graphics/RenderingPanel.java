@@ -3,18 +3,28 @@ package trrt.rendering3d.graphics;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.JPanel;
 
+import trrt.rendering3d.gameObject.BoundingVolumeHierarchy;
 import trrt.rendering3d.gameObject.GameObject;
-import trrt.rendering3d.primitives.Plane;
-import trrt.rendering3d.primitives.Quaternion;
-import trrt.rendering3d.primitives.Triangle;
+import trrt.rendering3d.gameObject.Mesh;
+import trrt.rendering3d.gameObject.Texture;
+import trrt.rendering3d.gameObject.Transform;
+import trrt.rendering3d.primitives.Matrix3x3;
+import trrt.rendering3d.primitives.Matrix4x4;
 import trrt.rendering3d.primitives.Vector3;
 
 public class RenderingPanel extends JPanel implements Runnable {
@@ -22,46 +32,230 @@ public class RenderingPanel extends JPanel implements Runnable {
 	private ArrayList<GameObject> gameObjects = new ArrayList<GameObject>();
 	private HashMap<String, Integer> gameObjectIndices = new HashMap<String, Integer>();
 
+	// the same objects in a bounding volume hierarchy, used to find the ones
+	// in view without testing every object.
+	private BoundingVolumeHierarchy sceneIndex = new BoundingVolumeHierarchy();
+	private ArrayList<GameObject> visibleObjects = new ArrayList<GameObject>();
+
 	// for rendering:
 	private BufferedImage renderImage;
+	private int[] pixels;
+	private int imageWidth;
+	private int imageHeight;
+	private boolean depthBufferEnabled;
+	private boolean smoothShadingEnabled;
+	private boolean texturesEnabled = true;
+	private float[] depthBuffer;
 	private Color backgroundColor;
-	private Plane renderPlane;
+	private Color textColor;
 	private int[] blankImagePixelColorData;
-	private ArrayList<Triangle2D>[] sortQeue;
-	private ArrayList<Triangle2D> drawQeue;
-	private Quaternion pointRotationQuaternion;
-	private double pixelsPerUnit;
-	private Vector3 camCenterPoint;
 	private boolean hasTrianglesToRender;
-	private double maxTriangleDistance;
-	private double minTriangleDistance;
+
+	// the 2d triangles of the frame in the order they were computed, stored in
+	// primitive arrays that are reused every frame: the screen coordinates of
+	// the corners (x1, y1, x2, y2, x3, y3), the inverse depth of each corner,
+	// the color, and the color of each corner for smooth shading. Textured
+	// triangles also have their texture (null for the others), the texture
+	// coordinates of the corners (u1, v1, u2, v2, u3, v3), and the brightness
+	// of each corner followed by the fog amount. Each triangle has a sort key,
+	// with the depth key of the triangle in the upper 32 bits and its index in
+	// the lower 32 bits. sortScratch and radixCounts are reused by the radix
+	// sort every frame. The indices of the sorted triangles are put in the draw
+	// qeue, from far to near.
+	private int[] framePoints = new int[6 * 1024];
+	private float[] frameInvDepths = new float[3 * 1024];
+	private int[] frameColors = new int[1024];
+	private int[] frameCornerColors = new int[3 * 1024];
+	private Texture[] frameTextures = new Texture[1024];
+	private float[] frameTextureCoords = new float[6 * 1024];
+	private int[] frameTextureShading = new int[4 * 1024];
+	private int frameTriangleCount;
+	private long[] sortKeys = new long[1024];
+	private long[] sortScratch = new long[1024];
+	private int[] radixCounts = new int[2 * RADIX_SIZE];
+	private int[] drawQeue = new int[1024];
+	private int drawQeueSize;
+
+	// the radix sort sorts the 24 bit depth keys in two passes of 12 bits.
+	private static final int RADIX_BITS = 12;
+	private static final int RADIX_SIZE = 1 << RADIX_BITS;
+
+	// incremental sorting starts from last frame's draw order. Every triangle
+	// of the frame knows its source, the triangle of the game object it came
+	// from (clipped triangles share one), and last frame's sources are kept
+	// in draw order. Each game object gets a range of sources as big as its
+	// mesh.
+	private boolean incrementalSortEnabled = true;
+	private HashMap<GameObject, Integer> sourceBases = new HashMap<GameObject, Integer>();
+	private int sourceCount;
+	private int objectSourceBase;
+	private int[] frameSources = new int[1024];
+	private int[] previousOrder = new int[1024];
+	private int previousOrderSize;
+	private boolean previousOrderValid;
+	private int[] sourceFirstTriangles = new int[0];
+	private int[] nextTriangles = new int[1024];
+	private Vector3 previousCamPos = Vector3.ZERO;
+	private Vector3 previousCamDirection = Vector3.ZERO;
+
+	// the camera jumped if it moved further than this fraction of the far
+	// clip distance, or turned further than this angle (as a cosine), since
+	// the last frame.
+	private static final double CAMERA_JUMP_DISTANCE = 0.05;
+	private static final double CAMERA_JUMP_COS_ANGLE = 0.96;
+
+	// the incremental sort gives up and sorts everything if more than this
+	// fraction of the triangles are new, or if repairing the order moves the
+	// triangles further than this many places each on average.
+	private static final double MAX_NEW_TRIANGLES = 0.25;
+	private static final int MAX_INSERTION_MOVES = 8;
+
+	// per frame cache of the projected vertices of the mesh being computed,
+	// indexed like the mesh's vertex list.
+	private int[] vertexScreenX = new int[0];
+	private int[] vertexScreenY = new int[0];
+	private float[] vertexInvDepth = new float[0];
+	private byte[] vertexClipCodes = new byte[0];
+
+	// bits of a vertex's clip code, one for each clipping plane the vertex is
+	// outside of.
+	private static final int CLIP_NEAR = 1;
+	private static final int CLIP_LEFT = 2;
+	private static final int CLIP_RIGHT = 4;
+	private static final int CLIP_TOP = 8;
+	private static final int CLIP_BOTTOM = 16;
+
+	// the number of values stored per vertex of a polygon being clipped.
+	private static final int CLIP_STRIDE = 9;
+
+	// textured spans are drawn in blocks of this many pixels, lined up with
+	// the screen. The texture coordinates are calculated exactly at the start
+	// of each block and stepped across it, so they don't depend on where a
+	// span was clipped.
+	private static final int TEXTURE_BLOCK_SIZE = 16;
+
+	// how many pixels vertices can be outside the screen before their
+	// triangles are clipped. The rasterizer already clips each line to the
+	// screen, so this only keeps screen coordinates at a reasonable size.
+	private static final int GUARD_BAND = 4096;
+
+	// results of testing a mesh's bounding volumes against the view frustum.
+	private static final int OUTSIDE_FRUSTUM = 0;
+	private static final int INTERSECTS_FRUSTUM = 1;
+	private static final int INSIDE_FRUSTUM = 2;
+
+	// the camera's frustum planes with the near plane moved back to the
+	// camera. A triangle slightly in front of the camera can be closer than
+	// the near plane but still further than the near clip distance, so the
+	// near plane only rejects what is completely behind the camera.
+	private double[] cullingPlanes = new double[24];
+
+	// is the mesh being computed entirely inside the view frustum? If so, its
+	// vertices don't need to be tested against the guard band.
+	private boolean meshInsideFrustum;
+
+	// the game object being computed: the matrix taking its mesh from local
+	// space to the screen, the camera position in its local space, the lit
+	// colors of its triangles, and the brightness of its vertices when it is
+	// smooth shaded (null otherwise). Textured meshes also have their texture
+	// and the brightness of their triangles. Triangles are culled in local
+	// space, so only the vertices have to be transformed. Only the x, y and w
+	// rows of the matrix are used, so those are stored, four values per row, in
+	// an array that is reused for every game object.
+	private double[] objectMatrix = new double[12];
+	private double localCamX;
+	private double localCamY;
+	private double localCamZ;
+	private int[] objectTriangleColors;
+	private int[] objectVertexBrightness;
+	private Texture objectTexture;
+	private int[] objectTriangleBrightness;
 
 	// multithreading:
 	private Thread renderingThread;
 	private boolean threadRunning;
 	private int fps;
+	private int renderThreads;
+	private ForkJoinPool renderPool;
+
+	// the tasks of the render pool. A parallel stage splits its work into
+	// SLICES_PER_THREAD slices per thread. The render thread and one helper
+	// task per other thread claim the slices by counting up nextSlice, and
+	// count remainingSlices down as they finish them. The render thread then
+	// parks until the last slice is done, since waiting with
+	// ForkJoinTask.join() creates a wait node every time it blocks. The
+	// helpers are created once and reinitialized every time they run, so the
+	// parallel stages don't create any objects. A slice which throws still
+	// counts as done; the first exception of a stage is kept in stageFailure
+	// and rethrown on the render thread once the stage is over.
+	private static final int SLICES_PER_THREAD = 8;
+	private static final int STAGE_PROJECT_VERTICES = 0;
+	private static final int STAGE_CALCULATE_TRIANGLES = 1;
+	private static final int STAGE_RASTERIZE_TILES = 2;
+	private static final int STAGE_LIGHT_TRIANGLES = 3;
+	private static final int STAGE_LIGHT_VERTICES = 4;
+	private StageHelper[] stageHelpers = new StageHelper[0];
+	private final AtomicInteger nextSlice = new AtomicInteger();
+	private final AtomicInteger remainingSlices = new AtomicInteger();
+	private volatile Thread stageWaiter;
+	private final AtomicReference<Throwable> stageFailure;
+	private int currentStage;
+	private int stageItemCount;
+	private int stageSliceCount;
+	private Mesh stageMesh;
+	private GameObject stageObject;
+	private int stageLevel;
+	private int stageLightCount;
+
+	// outputs of the geometry stage, one per range of
+	// {@value #GEOMETRY_CHUNK_SIZE} triangles of the mesh being computed.
+	private static final int GEOMETRY_CHUNK_SIZE = 4096;
+	private GeometryChunk[] geometryChunks = new GeometryChunk[0];
+
+	// tiles for the parallel rasterizer. Each tile has a bin with the indices
+	// (into drawQeue) of the triangles that overlap it, in draw order.
+	private static final int TILE_SIZE = 64;
+	private int tilesX;
+	private int[][] tileBins;
+	private int[] tileBinSizes;
 
 	// Camera values:
 	private Camera camera;
-	private Vector3 camDirection;
 	private Vector3 camPos;
-	private double renderPlaneWidth;
 
 	// lighting:
 	private Lighting lightingObject;
 
+	// point and spot lights, and the ones that reach the game object being
+	// computed.
+	private ArrayList<PointLight> lights = new ArrayList<PointLight>();
+	private ArrayList<PointLight> objectLights = new ArrayList<PointLight>();
+
+	// level of detail: the largest error in pixels a simplified mesh can
+	// have, and how far past that the error has to go before switching.
+	private boolean levelOfDetailEnabled = true;
+	private double levelOfDetailThreshold = 1;
+	private double levelOfDetailHysteresis = 0.25;
+
 	// fog stats:
 	private double fogStartDistance;
 	private double fullFogDistance;
 	private boolean fogEnabled = false;
-	private int fogR;
-	private int fogG;
-	private int fogB;
+	private int fogColor;
+
+	// how much of the fog color is blended into a triangle (0 to 256), for
+	// evenly spaced distances from the start of the fog to full fog.
+	// fogTableScale converts a distance past the start of the fog into an
+	// index. The table is rebuilt by setFog().
+	private static final int FOG_TABLE_SIZE = 1024;
+	private int[] fogTable = new int[FOG_TABLE_SIZE + 1];
+	private double fogTableScale;
 
 	// used to help with optimizations:
 	private TimingHelper totalFrameTime = new TimingHelper("time per frame");
 	private TimingHelper trianglesCalculateTime = new TimingHelper(
 			"transformation");
+	private TimingHelper trianglesSortTime = new TimingHelper("sorting");
 	private TimingHelper trianglesPaintTime = new TimingHelper("rasterization");
 
 	/**
@@ -79,34 +273,52 @@ public class RenderingPanel extends JPanel implements Runnable {
 		// background color:
 		backgroundColor = bgColor;
 		setBackground(backgroundColor);
+		textColor = new Color(255 - backgroundColor.getRed(),
+				255 - backgroundColor.getGreen(),
+				255 - backgroundColor.getBlue());
 
 		// innitialize fields
 		camera = null;
 		lightingObject = null;
 		gameObjects = new ArrayList<GameObject>();
-		sortQeue = null;
-		camDirection = Vector3.ZERO;
+		sceneIndex = new BoundingVolumeHierarchy();
+		stageFailure = new AtomicReference<Throwable>();
 		camPos = Vector3.ZERO;
 		fps = -1;
-		drawQeue = new ArrayList<Triangle2D>();
 		hasTrianglesToRender = false;
+		buildFogTable();
 
 		// creates the buffered image which will be used to render triangles.
 		renderImage = new BufferedImage(width, height,
 				BufferedImage.TYPE_INT_RGB);
+		imageWidth = width;
+		imageHeight = height;
+
+		// the int array backing the buffered image. Triangles are painted
+		// straight into this array, so no pixel data has to be copied through
+		// the image's raster.
+		pixels = ((DataBufferInt) renderImage.getRaster().getDataBuffer())
+				.getData();
 
 		// empty image pixel color data array is used to store the pixel data
 		// for a blank image,
 		// which is used to clear the buffered image before each frame is drawn.
 		blankImagePixelColorData = new int[width * height];
 		Arrays.fill(blankImagePixelColorData, convertToIntRGB(backgroundColor));
+
+		// splits the image into tiles for the parallel rasterizer.
+		tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		tileBins = new int[tilesX * tilesY][];
+		tileBinSizes = new int[tileBins.length];
+		for (int i = 0; i < tileBins.length; i++)
+			tileBins[i] = new int[64];
+		setRenderThreads(Runtime.getRuntime().availableProcessors());
 	}
 
 	@Override
 	public void paintComponent(Graphics g) {
-		g.setColor(new Color(255 - backgroundColor.getRed(),
-				255 - backgroundColor.getGreen(),
-				255 - backgroundColor.getBlue()));
+		g.setColor(textColor);
 		totalFrameTime.stopClock();
 		totalFrameTime.startClock();
 		// makes sure that there are triangles to render in the first place, and
@@ -144,8 +356,48 @@ public class RenderingPanel extends JPanel implements Runnable {
 	}
 
 	/**
-	 * sets the lighting for the entire scene, which automatically updates the
-	 * lighting for each of the gameobjects in {@code gameObjects}.
+	 * sets the number of threads used for rendering. With more than one
+	 * thread, the vertices and triangles of each mesh are transformed and
+	 * culled in parallel ranges, and the image is split into
+	 * {@value #TILE_SIZE}x{@value #TILE_SIZE} tiles which are rasterized in
+	 * parallel. The result is identical to the single threaded renderer.
+	 * 
+	 * @param threads the number of threads, 1 disables parallel rasterization
+	 */
+	public void setRenderThreads(int threads) {
+		renderThreads = Math.max(1, threads);
+		if (renderPool != null)
+			renderPool.shutdown();
+		// the render thread does slices too, so the pool only needs a worker
+		// for each helper. A worker more would be started late, in the middle
+		// of a frame.
+		renderPool = (renderThreads > 1) ? new ForkJoinPool(renderThreads - 1)
+				: null;
+		stageHelpers = new StageHelper[renderThreads - 1];
+		for (int i = 0; i < stageHelpers.length; i++)
+			stageHelpers[i] = new StageHelper();
+		trianglesCalculateTime.setProcessName(
+				"transformation (" + renderThreads + " threads)");
+		trianglesPaintTime.setProcessName(
+				"rasterization (" + renderThreads + " threads)");
+	}
+
+	/**
+	 * @return the bounding volume hierarchy of the game objects in the panel,
+	 *         which can be used to find objects in a region or along a ray
+	 */
+	public BoundingVolumeHierarchy getSceneIndex() {
+		return sceneIndex;
+	}
+
+	public int getRenderThreads() {
+		return renderThreads;
+	}
+
+	/**
+	 * sets the lighting for the entire scene. Each game object lights its
+	 * triangles the next time it is drawn, and again after it rotates or the
+	 * lighting is changed (see {@link GameObject#isLit(int)}).
 	 * 
 	 * @param lighting the lighting object applied to the rendering panel
 	 */
@@ -156,18 +408,57 @@ public class RenderingPanel extends JPanel implements Runnable {
 			return;
 		}
 		lightingObject = lighting;
-		lightingObject.update(gameObjects);
 	}
 
-	// adds a mesh to be rendered, as well as updating it's lighting
+	/**
+	 * adds a point or spot light to the scene. Each game object is only lit
+	 * by the lights whose range reaches its bounding sphere, and only lit
+	 * again when one of those lights changes, or it moves or rotates while
+	 * lit by them.
+	 * 
+	 * @param light the light
+	 */
+	public void addLight(PointLight light) {
+		if (light != null && !lights.contains(light)) {
+			lights.add(light);
+		} else {
+			System.err.println(
+					"WARNING at: RenderingPanel/addLight() method: \n\tlight is null or already added. Light not added");
+		}
+	}
+
+	/**
+	 * removes a point or spot light from the scene
+	 * 
+	 * @param light the light
+	 */
+	public void removeLight(PointLight light) {
+		if (!lights.remove(light)) {
+			System.err.println(
+					"WARNING at: RenderingPanel/removeLight() method: \n\tCould not find the light. No lights removed");
+		}
+	}
+
+	/**
+	 * @return the point and spot lights of the scene
+	 */
+	public List<PointLight> getLights() {
+		return Collections.unmodifiableList(lights);
+	}
+
+	// adds a game object to be rendered. Game objects can share a mesh.
 	public void addGameObject(GameObject gameObject) {
 		if (gameObject != null && gameObject.getName() != null) {
 			gameObjectIndices.put(gameObject.getName(), gameObjects.size());
-			if (gameObject.getMesh().getTriangles().size() > 0)
-				hasTrianglesToRender = true;
 			gameObjects.add(gameObject);
-			if (lightingObject != null)
-				lightingObject.update(gameObjects);
+			if (gameObject.getMesh() != null) {
+				if (gameObject.getMesh().getTriangleCount() > 0)
+					hasTrianglesToRender = true;
+				sourceBases.put(gameObject, sourceCount);
+				sourceCount += gameObject.getMesh().getTriangleCount();
+			}
+			// the hierarchy warns about and skips objects without a mesh.
+			sceneIndex.insert(gameObject);
 		} else {
 			System.err.println(
 					"WARNING at: RenderingPanel/addGameObject() method: \n\tGameObject or it's name is null. Object not added");
@@ -181,7 +472,19 @@ public class RenderingPanel extends JPanel implements Runnable {
 	 */
 	public void removeGameObject(String name) {
 		if (gameObjectIndices.containsKey(name)) {
-			gameObjects.remove((int) gameObjectIndices.get(name));
+			sceneIndex.remove(
+					gameObjects.remove((int) gameObjectIndices.get(name)));
+			// gives the remaining game objects new sources without gaps.
+			sourceBases.clear();
+			sourceCount = 0;
+			for (int i = 0; i < gameObjects.size(); i++) {
+				GameObject gameObject = gameObjects.get(i);
+				if (gameObject.getMesh() != null) {
+					sourceBases.put(gameObject, sourceCount);
+					sourceCount += gameObject.getMesh().getTriangleCount();
+				}
+			}
+			previousOrderValid = false;
 		} else {
 			System.err.println(
 					"WARNING at: RenderingPanel/removeGameObject() method: \n\tCould not find the specified name. No GameObjects removed");
@@ -200,16 +503,6 @@ public class RenderingPanel extends JPanel implements Runnable {
 			return;
 		}
 		camera = camIn;
-		renderPlaneWidth = camera.getRenderPlaneWidth();
-		sortQeue = new ArrayList[(int) (camera.getFarClipDistancee()
-				- camera.getNearClipDistance()) + 1];
-		for (int i = 0; i < sortQeue.length; i++) {
-			sortQeue[i] = new ArrayList<Triangle2D>();
-		}
-		renderPlane = new Plane(Vector3.add(
-				Vector3.multiply(camDirection, camera.getRenderPlaneDistance()),
-				camera.getPosition()), camDirection);
-		;
 	}
 
 	/**
@@ -224,12 +517,25 @@ public class RenderingPanel extends JPanel implements Runnable {
 			Color color) {
 		fogStartDistance = fogStartDistanceIn;
 		fullFogDistance = fullFogDistanceIn;
-		fogR = color.getRed();
-		fogG = color.getGreen();
-		fogB = color.getBlue();
+		fogColor = convertToIntRGB(color);
+		buildFogTable();
 		fogEnabled = true;
 	}
 
+	// fills the fog table for the current fog distances. The fog gets thicker
+	// with the square of the distance into it.
+	private void buildFogTable() {
+		for (int i = 0; i <= FOG_TABLE_SIZE; i++) {
+			double fogAmt = (double) i / FOG_TABLE_SIZE;
+			fogTable[i] = (int) (fogAmt * fogAmt * 256);
+		}
+		// without any distance between them, everything past the start of
+		// the fog is fully covered.
+		fogTableScale = (fullFogDistance > fogStartDistance)
+				? FOG_TABLE_SIZE / (fullFogDistance - fogStartDistance)
+				: Double.POSITIVE_INFINITY;
+	}
+
 	/**
 	 * enables fog
 	 */
@@ -244,33 +550,168 @@ public class RenderingPanel extends JPanel implements Runnable {
 		fogEnabled = false;
 	}
 
+	/**
+	 * sets how simplified meshes can get before a more detailed level of
+	 * detail is drawn, and enables levels of detail. Meshes only have levels
+	 * of detail after {@link Mesh#generateLevelsOfDetail(int)} is called.
+	 * 
+	 * @param errorThreshold the largest error on the screen, in pixels, a
+	 *                       level of detail can have. Default is 1
+	 * @param hysteresis     how far past the threshold, as a fraction of it,
+	 *                       the error has to go before the level of detail
+	 *                       changes. Default is 0.25
+	 */
+	public void setLevelOfDetail(double errorThreshold, double hysteresis) {
+		levelOfDetailThreshold = errorThreshold;
+		levelOfDetailHysteresis = hysteresis;
+		levelOfDetailEnabled = true;
+	}
+
+	/**
+	 * enables levels of detail
+	 */
+	public void enableLevelOfDetail() {
+		levelOfDetailEnabled = true;
+	}
+
+	/**
+	 * dissables levels of detail, so meshes are always drawn fully detailed
+	 */
+	public void dissableLevelOfDetail() {
+		levelOfDetailEnabled = false;
+	}
+
+	/**
+	 * enables the depth buffer. Visibility is then decided per pixel instead
+	 * of by the order of the triangles, which handles intersecting and long
+	 * triangles correctly. Triangles are drawn from near to far, so hidden
+	 * pixels are never written.
+	 */
+	public void enableDepthBuffer() {
+		if (depthBuffer == null)
+			depthBuffer = new float[imageWidth * imageHeight];
+		depthBufferEnabled = true;
+	}
+
+	/**
+	 * dissables the depth buffer, going back to drawing triangles from far to
+	 * near over each other (painter's algorithm)
+	 */
+	public void dissableDepthBuffer() {
+		depthBufferEnabled = false;
+	}
+
+	/**
+	 * enables smooth (Gouraud) shading. Lighting is calculated for every
+	 * vertex from its vertex normal instead of once per triangle, and the
+	 * colors of the corners are blended across each triangle, which hides the
+	 * edges between the triangles of curved surfaces.
+	 */
+	public void enableSmoothShading() {
+		smoothShadingEnabled = true;
+	}
+
+	/**
+	 * dissables smooth shading, going back to one color per triangle
+	 */
+	public void dissableSmoothShading() {
+		smoothShadingEnabled = false;
+	}
+
+	/**
+	 * enables textures, which is on by default. Textured meshes are drawn
+	 * with their texture mapped onto every pixel, correcting for perspective.
+	 */
+	public void enableTextures() {
+		texturesEnabled = true;
+	}
+
+	/**
+	 * dissables textures, so textured triangles are drawn in the color of
+	 * the texture at their center
+	 */
+	public void dissableTextures() {
+		texturesEnabled = false;
+	}
+
+	/**
+	 * enables incremental sorting, which is on by default. Each frame starts
+	 * from the order the triangles were drawn in last frame and only repairs
+	 * it, which is much faster while the camera moves smoothly. All
+	 * triangles are sorted again when the camera jumps or too much changed.
+	 * The order is the same either way.
+	 */
+	public void enableIncrementalSort() {
+		incrementalSortEnabled = true;
+	}
+
+	/**
+	 * dissables incremental sorting, so all triangles are sorted every frame
+	 */
+	public void dissableIncrementalSort() {
+		incrementalSortEnabled = false;
+		previousOrderValid = false;
+	}
+
 	/** computes the 2d screen coordinates of all the triangles */
 	private void computeTriangles() {
 		trianglesCalculateTime.startClock();
 
-		maxTriangleDistance = 0;
-		minTriangleDistance = camera.getFarClipDistancee();
-		pixelsPerUnit = getWidth() / renderPlaneWidth;
-		renderPlaneWidth = camera.getRenderPlaneWidth();
 		camPos = camera.getPosition();
-		camDirection = camera.getDirectionVector();
-		camCenterPoint = Vector3.add(
-				Vector3.multiply(camDirection, camera.getRenderPlaneDistance()),
-				camPos);
-		renderPlane = new Plane(
-				Vector3.add(Vector3.multiply(camDirection,
-						camera.getRenderPlaneDistance()), camPos),
-				camDirection);
-		pointRotationQuaternion = createRotationQuaternion(
-				camera.getVorientation(), -camera.getHorientation());
-
-		for (int i = 0; i < gameObjects.size(); i++) {
-			if (gameObjects.get(i).getMesh() != null) {
-				for (int j = 0; j < gameObjects.get(i).getMesh().getTriangles()
-						.size(); j++) {
-					calculateTriangle(
-							gameObjects.get(i).getMesh().getTriangles().get(j));
+		camera.updateMatrices(getWidth(), getHeight());
+
+		System.arraycopy(camera.getFrustumPlaneValues(), 0, cullingPlanes, 0,
+				24);
+		cullingPlanes[19] += camera.getNearClipDistance();
+		visibleObjects.clear();
+		sceneIndex.queryPlanes(cullingPlanes, 6, visibleObjects);
+
+		for (int i = 0; i < visibleObjects.size(); i++) {
+			GameObject gameObject = visibleObjects.get(i);
+			Mesh mesh = gameObject.getMesh();
+			if (mesh != null) {
+				int frustumTest = testFrustum(gameObject);
+				if (frustumTest == OUTSIDE_FRUSTUM)
+					continue;
+				meshInsideFrustum = frustumTest == INSIDE_FRUSTUM;
+				int level = chooseLevelOfDetail(gameObject, mesh);
+				mesh = mesh.getLevelOfDetail(level);
+				prepareObjectTransform(gameObject);
+				boolean smoothShading = smoothShadingEnabled;
+				lightGameObject(gameObject, level, smoothShading);
+				if (smoothShading) {
+					objectTriangleColors = mesh.getTriangleColors();
+					objectVertexBrightness = gameObject
+							.getLitVertexBrightness(level);
+				} else {
+					objectTriangleColors = gameObject
+							.getLitTriangleColors(level);
+					objectVertexBrightness = null;
+				}
+				objectTexture = texturesEnabled ? mesh.getTexture() : null;
+				objectTriangleBrightness = (objectTexture != null
+						&& !smoothShading)
+								? gameObject.getLitTriangleBrightness(level)
+								: null;
+				objectSourceBase = sourceBases.get(gameObject);
+
+				int vertexCount = mesh.getVertexCount();
+				int chunkCount = (mesh.getTriangleCount() + GEOMETRY_CHUNK_SIZE
+						- 1) / GEOMETRY_CHUNK_SIZE;
+				prepareGeometryBuffers(vertexCount, chunkCount);
+
+				if (renderPool == null || chunkCount <= 1) {
+					projectVertices(mesh.getVertexPositions(), 0, vertexCount);
+					for (int j = 0; j < chunkCount; j++) {
+						calculateTriangles(mesh, j);
+					}
+				} else {
+					stageMesh = mesh;
+					runParallelStage(STAGE_PROJECT_VERTICES, vertexCount);
+					runParallelStage(STAGE_CALCULATE_TRIANGLES, chunkCount);
+					stageMesh = null;
 				}
+				mergeGeometryChunks(chunkCount);
 			}
 		}
 
@@ -278,45 +719,383 @@ public class RenderingPanel extends JPanel implements Runnable {
 	}
 
 	/**
-	 * creates a quaternion that rotates points to be only on the x and y axis
+	 * finds the lights which reach a game object, and calculates the lit
+	 * colors of a level of detail of the game object (or the brightness of
+	 * its vertices, when smooth shaded) if it rotated or its lights changed
+	 * since they were last calculated. Large meshes are lit in parallel
+	 * ranges of {@value #GEOMETRY_CHUNK_SIZE} triangles or vertices.
+	 * 
+	 * @param gameObject    the game object
+	 * @param level         the level of detail about to be drawn
+	 * @param smoothShading should the vertices be lit instead of the
+	 *                      triangles?
 	 */
-	private Quaternion createRotationQuaternion(double pitch, double yaw) {
-		// x axis rotation first
-		pitch = Math.sin(pitch / 2);
-		double w1 = Math.sqrt(1 - pitch * pitch);
-
-		// y axis rotation
-		yaw = Math.sin(yaw / 2);
-		double w2 = Math.sqrt(1 - yaw * yaw);
+	private void lightGameObject(GameObject gameObject, int level,
+			boolean smoothShading) {
+		objectLights.clear();
+		if (lights.size() > 0) {
+			Vector3 center = gameObject.getBoundingSphereCenter();
+			double radius = gameObject.getBoundingSphereRadius();
+			for (int i = 0; i < lights.size(); i++) {
+				if (lights.get(i).reachesSphere(center, radius))
+					objectLights.add(lights.get(i));
+			}
+		}
+		gameObject.setLights(lightingObject, objectLights);
+		if (smoothShading ? gameObject.isVertexLit(level)
+				: gameObject.isLit(level))
+			return;
 
-		return new Quaternion(w1 * w2, w2 * pitch, w1 * yaw, pitch * yaw);
+		Mesh mesh = gameObject.getMesh().getLevelOfDetail(level);
+		int count;
+		if (smoothShading) {
+			gameObject.prepareVertexLighting(level);
+			count = mesh.getVertexCount();
+		} else {
+			gameObject.prepareLighting(level);
+			count = mesh.getTriangleCount();
+		}
+		if (renderPool == null || count <= GEOMETRY_CHUNK_SIZE) {
+			if (smoothShading)
+				gameObject.lightVertices(level, 0, count);
+			else
+				gameObject.lightTriangles(level, 0, count);
+		} else {
+			// makes sure the normals and centers are calculated before the
+			// slices read them.
+			if (smoothShading) {
+				mesh.getVertexNormals();
+			} else {
+				mesh.getTriangleNormals();
+				mesh.getTriangleCenters();
+			}
+			stageObject = gameObject;
+			stageLevel = level;
+			stageLightCount = count;
+			runParallelStage(
+					smoothShading ? STAGE_LIGHT_VERTICES : STAGE_LIGHT_TRIANGLES,
+					(count + GEOMETRY_CHUNK_SIZE - 1) / GEOMETRY_CHUNK_SIZE);
+			stageObject = null;
+		}
 	}
 
-	/** sorts triangles from far to near */
+	/**
+	 * sorts triangles from far to near by sorting their keys, and adds them to
+	 * the draw qeue in that order. Last frame's order is repaired if possible,
+	 * otherwise all keys are radix sorted.
+	 */
 	private void sortTriangles() {
-		for (int i = (int) maxTriangleDistance + 1; i > minTriangleDistance
-				- 1; i--) {
-			if (i < sortQeue.length && sortQeue[i].size() > 0) {
-				drawQeue.addAll(sortQeue[i]);
-				sortQeue[i].clear();
+		trianglesSortTime.startClock();
+		int count = frameTriangleCount;
+		if (!incrementalSortEnabled || !previousOrderValid || cameraJumped()
+				|| !repairPreviousOrder(count))
+			radixSort(count);
+
+		if (drawQeue.length < count)
+			drawQeue = new int[frameColors.length];
+		if (previousOrder.length < count)
+			previousOrder = new int[frameColors.length];
+		for (int i = 0; i < count; i++) {
+			int index = (int) sortKeys[i];
+			drawQeue[i] = index;
+			previousOrder[i] = frameSources[index];
+		}
+		drawQeueSize = count;
+		previousOrderSize = count;
+		previousOrderValid = incrementalSortEnabled;
+		previousCamPos = camPos;
+		previousCamDirection = camera.getDirectionVector();
+		frameTriangleCount = 0;
+		trianglesSortTime.stopClock();
+	}
+
+	// did the camera move or turn too far since the last frame for its order
+	// to be worth repairing?
+	private boolean cameraJumped() {
+		double maxDistance = CAMERA_JUMP_DISTANCE
+				* camera.getFarClipDistancee();
+		double x = camPos.x - previousCamPos.x;
+		double y = camPos.y - previousCamPos.y;
+		double z = camPos.z - previousCamPos.z;
+		return x * x + y * y + z * z > maxDistance * maxDistance
+				|| Vector3.dotProduct(camera.getDirectionVector(),
+						previousCamDirection) < CAMERA_JUMP_COS_ANGLE;
+	}
+
+	/**
+	 * sorts the keys by putting them in last frame's order and repairing it.
+	 * The triangles found in last frame's order are repaired with an insertion
+	 * sort, which is close to O(n) when they only moved a few places. The new
+	 * triangles are sorted on their own and merged in.
+	 * 
+	 * @param count the number of keys
+	 * @return false if the frame changed too much, in which case the keys are
+	 *         left as they were
+	 */
+	private boolean repairPreviousOrder(int count) {
+		if (sourceFirstTriangles.length < sourceCount) {
+			sourceFirstTriangles = new int[sourceCount];
+			Arrays.fill(sourceFirstTriangles, -1);
+		}
+		// links the triangles of each source, in the order they were
+		// calculated.
+		for (int i = count - 1; i >= 0; i--) {
+			int source = frameSources[i];
+			nextTriangles[i] = sourceFirstTriangles[source];
+			sourceFirstTriangles[source] = i;
+		}
+
+		// puts the keys of the triangles in last frame's order. A source is
+		// unlinked once its triangles are placed, so clipped triangles are
+		// only placed once.
+		long[] keys = sortScratch;
+		int placed = 0;
+		for (int i = 0; i < previousOrderSize; i++) {
+			int source = previousOrder[i];
+			if (source >= sourceFirstTriangles.length)
+				continue;
+			for (int j = sourceFirstTriangles[source]; j != -1;
+					j = nextTriangles[j]) {
+				keys[placed++] = sortKeys[j];
 			}
+			sourceFirstTriangles[source] = -1;
+		}
+		int repaired = placed;
+		for (int i = 0; i < count; i++) {
+			int source = frameSources[i];
+			if (sourceFirstTriangles[source] != -1)
+				keys[placed++] = sortKeys[i];
 		}
+		for (int i = 0; i < count; i++) {
+			sourceFirstTriangles[frameSources[i]] = -1;
+		}
+
+		if (count - repaired > MAX_NEW_TRIANGLES * count
+				|| !insertionSort(keys, repaired, MAX_INSERTION_MOVES * count))
+			return false;
+		if (repaired < count) {
+			// the new keys were placed in the order of their indices, so
+			// sorting their depth keys sorts them completely. sortKeys is
+			// free to be the other buffer, and then the output of the merge.
+			long[] newKeys = radixSort(keys, sortKeys, repaired, count);
+			mergeRuns(keys, repaired, newKeys, count, sortKeys);
+			return true;
+		}
+		sortScratch = sortKeys;
+		sortKeys = keys;
+		return true;
+	}
+
+	/**
+	 * sorts the first {@code count} keys with an insertion sort, giving up if
+	 * that takes too many moves.
+	 * 
+	 * @param keys     the keys
+	 * @param count    the number of keys
+	 * @param maxMoves how many places the keys may move in total
+	 * @return false if the keys needed more moves
+	 */
+	private static boolean insertionSort(long[] keys, int count,
+			int maxMoves) {
+		int moves = 0;
+		for (int i = 1; i < count; i++) {
+			long key = keys[i];
+			int j = i - 1;
+			if (keys[j] <= key)
+				continue;
+			do {
+				keys[j + 1] = keys[j];
+				j--;
+			} while (j >= 0 && keys[j] > key);
+			keys[j + 1] = key;
+			moves += i - 1 - j;
+			if (moves > maxMoves)
+				return false;
+		}
+		return true;
+	}
+
+	// merges the two sorted runs first[0, middle) and second[middle, end)
+	// into output[0, end). The second run may already be in output, since
+	// every key of it is read before its place is written.
+	private static void mergeRuns(long[] first, int middle, long[] second,
+			int end, long[] output) {
+		int a = 0;
+		int b = middle;
+		int i = 0;
+		while (a < middle && b < end) {
+			output[i++] = (first[a] <= second[b]) ? first[a++] : second[b++];
+		}
+		System.arraycopy(first, a, output, i, middle - a);
+		i += middle - a;
+		System.arraycopy(second, b, output, i, end - b);
+	}
+
+	/**
+	 * sorts the first {@code count} sort keys with a least significant digit
+	 * radix sort, and swaps sortKeys and sortScratch if the sorted keys ended
+	 * up in sortScratch.
+	 * 
+	 * @param count the number of keys
+	 */
+	private void radixSort(int count) {
+		long[] sorted = radixSort(sortKeys, sortScratch, 0, count);
+		if (sorted != sortKeys) {
+			sortScratch = sortKeys;
+			sortKeys = sorted;
+		}
+	}
+
+	/**
+	 * sorts the keys [start, end) with a least significant digit radix sort,
+	 * {@value #RADIX_BITS} bits of the 24 bit depth key per pass. Only the
+	 * depth half of the keys is sorted: the keys are in the order of their
+	 * indices and every pass is stable, so triangles at the same depth stay
+	 * in the order they were computed in. A pass is skipped if every key has
+	 * the same digit.
+	 * 
+	 * @param keys    the keys
+	 * @param scratch the other buffer, whose range [start, end) is
+	 *                overwritten
+	 * @param start   the first key
+	 * @param end     the end of the keys (exclusive)
+	 * @return the array the sorted keys are in, {@code keys} or
+	 *         {@code scratch}
+	 */
+	private long[] radixSort(long[] keys, long[] scratch, int start,
+			int end) {
+		if (start == end)
+			return keys;
+		int count = end - start;
+		int[] counts = radixCounts;
+		Arrays.fill(counts, 0);
+		int mask = RADIX_SIZE - 1;
+		for (int i = start; i < end; i++) {
+			int depthKey = (int) (keys[i] >>> 32);
+			counts[depthKey & mask]++;
+			counts[RADIX_SIZE + (depthKey >>> RADIX_BITS)]++;
+		}
+
+		long[] from = keys;
+		long[] to = scratch;
+		for (int pass = 0; pass < 2; pass++) {
+			int offset = pass * RADIX_SIZE;
+			int shift = 32 + pass * RADIX_BITS;
+			if (counts[offset + ((int) (from[start] >>> shift) & mask)]
+					== count)
+				continue;
+
+			// turns the counts of each digit into the position its first key
+			// goes to.
+			int position = start;
+			for (int digit = offset; digit < offset + RADIX_SIZE; digit++) {
+				int digitCount = counts[digit];
+				counts[digit] = position;
+				position += digitCount;
+			}
+			for (int i = start; i < end; i++) {
+				long key = from[i];
+				to[counts[offset + ((int) (key >>> shift) & mask)]++] = key;
+			}
+			long[] swap = from;
+			from = to;
+			to = swap;
+		}
+		return from;
+	}
+
+	/**
+	 * calculates the 24 bit depth key of a triangle, which is smaller for
+	 * triangles further away. The bits of a positive float are in the same
+	 * order as the values, so the key is the top 24 bits of the distance as a
+	 * float. That keeps 16 bits of its mantissa, which separates triangles
+	 * less than a unit apart up to a distance of 30000.
+	 * 
+	 * @param distance the distance to the triangle, at least 0
+	 * @return the depth key
+	 */
+	private static int depthKey(double distance) {
+		return (Integer.MAX_VALUE - Float.floatToIntBits((float) distance)) >>> 7;
 	}
 
 	/** draws the 2d triangles onto the buffered image */
 	private void rasterizeTriangles() {
 		trianglesPaintTime.startClock();
-		renderImage.getRaster().setDataElements(0, 0, renderImage.getWidth(),
-				renderImage.getHeight(), blankImagePixelColorData);
-		for (int i = 0; i < drawQeue.size(); i++) {
-			Triangle2D triangle2d = drawQeue.get(i);
-			paintTriangle(triangle2d.p1, triangle2d.p2, triangle2d.p3,
-					triangle2d.color);
-		}
-		drawQeue.clear();
+		System.arraycopy(blankImagePixelColorData, 0, pixels, 0,
+				pixels.length);
+		if (depthBufferEnabled)
+			Arrays.fill(depthBuffer, 0);
+		if (renderPool == null) {
+			// with a depth buffer, triangles are drawn from near to far so
+			// hidden pixels are rejected instead of painted over.
+			if (depthBufferEnabled) {
+				for (int i = drawQeueSize - 1; i >= 0; i--)
+					paintTriangle(drawQeue[i], 0, 0, imageWidth,
+							imageHeight);
+			} else {
+				for (int i = 0; i < drawQeueSize; i++)
+					paintTriangle(drawQeue[i], 0, 0, imageWidth,
+							imageHeight);
+			}
+		} else {
+			binTriangles();
+			runParallelStage(STAGE_RASTERIZE_TILES, tileBins.length);
+		}
+		drawQeueSize = 0;
 		trianglesPaintTime.stopClock();
 	}
 
+	/**
+	 * adds the index of every triangle in the draw qeue to the bins of the
+	 * tiles its bounding box overlaps. Triangles are binned in draw order, so
+	 * every bin stays sorted from far to near.
+	 */
+	private void binTriangles() {
+		Arrays.fill(tileBinSizes, 0);
+		int[] points = framePoints;
+		for (int i = 0; i < drawQeueSize; i++) {
+			int p = drawQeue[i] * 6;
+			int minX = Math.max(0, Math.min(points[p],
+					Math.min(points[p + 2], points[p + 4])));
+			int maxX = Math.min(imageWidth - 1, Math.max(points[p],
+					Math.max(points[p + 2], points[p + 4])));
+			int minY = Math.max(0, Math.min(points[p + 1],
+					Math.min(points[p + 3], points[p + 5])));
+			int maxY = Math.min(imageHeight - 1, Math.max(points[p + 1],
+					Math.max(points[p + 3], points[p + 5])));
+			if (minX > maxX || minY > maxY)
+				continue;
+
+			for (int tileY = minY / TILE_SIZE; tileY <= maxY
+					/ TILE_SIZE; tileY++) {
+				for (int tileX = minX / TILE_SIZE; tileX <= maxX
+						/ TILE_SIZE; tileX++) {
+					int tile = tileY * tilesX + tileX;
+					if (tileBinSizes[tile] == tileBins[tile].length)
+						tileBins[tile] = Arrays.copyOf(tileBins[tile],
+								tileBins[tile].length * 2);
+					tileBins[tile][tileBinSizes[tile]++] = i;
+				}
+			}
+		}
+	}
+
+	/** paints the triangles of a tile's bin, clipped to the tile. */
+	private void rasterizeTile(int tile) {
+		int minX = (tile % tilesX) * TILE_SIZE;
+		int minY = (tile / tilesX) * TILE_SIZE;
+		int maxX = Math.min(imageWidth, minX + TILE_SIZE);
+		int maxY = Math.min(imageHeight, minY + TILE_SIZE);
+		int[] bin = tileBins[tile];
+		if (depthBufferEnabled) {
+			for (int i = tileBinSizes[tile] - 1; i >= 0; i--)
+				paintTriangle(drawQeue[bin[i]], minX, minY, maxX, maxY);
+		} else {
+			for (int i = 0; i < tileBinSizes[tile]; i++)
+				paintTriangle(drawQeue[bin[i]], minX, minY, maxX, maxY);
+		}
+	}
+
 	/**
 	 * starts the frame updates of the rendering panel
 	 */
@@ -358,153 +1137,517 @@ public class RenderingPanel extends JPanel implements Runnable {
 		}
 	}
 
-	// calculates the three screen coordinates of a single triangle in world
-	// space, based off the orientation and position of the camera.
-	// It then adds the resulting 2d triangle into the triangle2dList for
-	// painting later.
-	private void calculateTriangle(Triangle triangle) {
-		Vector3 triangleCenter = triangle.getCenter();
-		double distanceToTriangle = triangleCenter.subtract(camPos)
-				.getMagnitude();
-		if (distanceToTriangle > maxTriangleDistance)
-			maxTriangleDistance = distanceToTriangle;
-		else if (distanceToTriangle < minTriangleDistance)
-			minTriangleDistance = distanceToTriangle;
-		if (Vector3.dotProduct(triangle.getPlane().normal,
-				triangleCenter.subtract(camPos)) > 0 // is the triangle
-														// facing away?
-				|| Vector3.dotProduct(triangleCenter.subtract(camPos),
-						camDirection) <= 0 // is the triangle behind the camera?
+	/**
+	 * picks the least detailed level of detail of a game object's mesh whose
+	 * error is at most {@code levelOfDetailThreshold} pixels on the screen,
+	 * measured at the closest point of the mesh's bounding sphere. To stop
+	 * objects near the threshold from switching back and forth, a less
+	 * detailed level is only used once it is below the threshold by the
+	 * hysteresis fraction, and a more detailed level only once the current one
+	 * is above it by that fraction.
+	 * 
+	 * @param gameObject the game object, which keeps the level chosen last
+	 * @param mesh       the mesh of the game object
+	 * @return the level of detail to draw
+	 */
+	private int chooseLevelOfDetail(GameObject gameObject, Mesh mesh) {
+		int levels = mesh.getLevelOfDetailCount();
+		if (!levelOfDetailEnabled || levels == 1)
+			return 0;
+
+		double distance = Math.max(camera.getNearClipDistance(),
+				distanceToCamera(gameObject.getBoundingSphereCenter())
+						- gameObject.getBoundingSphereRadius());
+		// the number of pixels one unit covers at that distance.
+		double pixelsPerUnit = camera.getProjectionValues()[0] / distance;
+
+		int current = Math.min(gameObject.getLevelOfDetail(), levels - 1);
+		int level = 0;
+		while (level + 1 < levels && mesh.getLevelOfDetailError(level + 1)
+				* pixelsPerUnit <= levelOfDetailThreshold)
+			level++;
+
+		if (level > current) {
+			while (level > current && mesh.getLevelOfDetailError(level)
+					* pixelsPerUnit > levelOfDetailThreshold
+							* (1 - levelOfDetailHysteresis))
+				level--;
+		} else if (level < current) {
+			if (mesh.getLevelOfDetailError(current)
+					* pixelsPerUnit <= levelOfDetailThreshold
+							* (1 + levelOfDetailHysteresis))
+				level = current;
+		}
+		gameObject.setLevelOfDetail(level);
+		return level;
+	}
+
+	/**
+	 * tests the bounding sphere and box of a game object against the camera's
+	 * view frustum.
+	 * 
+	 * @param gameObject the game object
+	 * @return {@code OUTSIDE_FRUSTUM} if none of the object's triangles can be
+	 *         drawn, {@code INSIDE_FRUSTUM} if all of its vertices are on the
+	 *         screen, and {@code INTERSECTS_FRUSTUM} otherwise
+	 */
+	private int testFrustum(GameObject gameObject) {
+		Vector3 center = gameObject.getBoundingSphereCenter();
+		double radius = gameObject.getBoundingSphereRadius();
+		Vector3 min = gameObject.getBoundsMin();
+		Vector3 max = gameObject.getBoundsMax();
+
+		// triangles are clipped by their distance from the camera rather than
+		// their depth, so the near and far clip distances are checked against
+		// the sphere directly.
+		double distance = distanceToCamera(center);
+		if (distance + radius <= camera.getNearClipDistance()
+				|| distance - radius >= camera.getFarClipDistancee())
+			return OUTSIDE_FRUSTUM;
+
+		double[] planes = cullingPlanes;
+		boolean inside = true;
+		for (int i = 0; i < 24; i += 4) {
+			double a = planes[i];
+			double b = planes[i + 1];
+			double c = planes[i + 2];
+			double d = planes[i + 3];
+			double sphereDistance = a * center.x + b * center.y + c * center.z
+					+ d;
+			if (sphereDistance >= radius)
+				continue;
+
+			// the corners of the box furthest in front of and behind the
+			// plane.
+			double frontDistance = a * ((a > 0) ? max.x : min.x)
+					+ b * ((b > 0) ? max.y : min.y)
+					+ c * ((c > 0) ? max.z : min.z) + d;
+			double backDistance = a * ((a > 0) ? min.x : max.x)
+					+ b * ((b > 0) ? min.y : max.y)
+					+ c * ((c > 0) ? min.z : max.z) + d;
+
+			if (sphereDistance < -radius || frontDistance < 0)
+				return OUTSIDE_FRUSTUM;
+			if (backDistance < 0)
+				inside = false;
+		}
+		return inside ? INSIDE_FRUSTUM : INTERSECTS_FRUSTUM;
+	}
+
+	// the distance from the camera to a point in world space.
+	private double distanceToCamera(Vector3 point) {
+		double x = point.x - camPos.x;
+		double y = point.y - camPos.y;
+		double z = point.z - camPos.z;
+		return Math.sqrt(x * x + y * y + z * z);
+	}
+
+	// sets up the matrices and the local camera position used to compute the
+	// triangles of a game object. The camera is moved into the object's local
+	// space with the transpose of its rotation, which is also its inverse.
+	private void prepareObjectTransform(GameObject gameObject) {
+		Transform transform = gameObject.getTransform();
+		double[] a = camera.getViewProjectionValues();
+		Matrix4x4 b = transform.getLocalToWorldMatrix();
+		multiplyRow(a[0], a[1], a[2], a[3], b, objectMatrix, 0);
+		multiplyRow(a[4], a[5], a[6], a[7], b, objectMatrix, 4);
+		multiplyRow(a[12], a[13], a[14], a[15], b, objectMatrix, 8);
+
+		Matrix3x3 r = transform.getRotationMatrix();
+		double x = camPos.x - transform.getPosition().x;
+		double y = camPos.y - transform.getPosition().y;
+		double z = camPos.z - transform.getPosition().z;
+		localCamX = r.R1C1 * x + r.R2C1 * y + r.R3C1 * z;
+		localCamY = r.R1C2 * x + r.R2C2 * y + r.R3C2 * z;
+		localCamZ = r.R1C3 * x + r.R2C3 * y + r.R3C3 * z;
+	}
+
+	// multiplies the row (a1, a2, a3, a4) of a matrix by the matrix b and
+	// stores the resulting row in output, starting at offset.
+	private static void multiplyRow(double a1, double a2, double a3,
+			double a4, Matrix4x4 b, double[] output, int offset) {
+		output[offset] = a1 * b.R1C1 + a2 * b.R2C1 + a3 * b.R3C1 + a4 * b.R4C1;
+		output[offset + 1] = a1 * b.R1C2 + a2 * b.R2C2 + a3 * b.R3C2
+				+ a4 * b.R4C2;
+		output[offset + 2] = a1 * b.R1C3 + a2 * b.R2C3 + a3 * b.R3C3
+				+ a4 * b.R4C3;
+		output[offset + 3] = a1 * b.R1C4 + a2 * b.R2C4 + a3 * b.R3C4
+				+ a4 * b.R4C4;
+	}
+
+	// makes sure the vertex cache and the geometry chunks are big enough for
+	// the mesh about to be computed.
+	private void prepareGeometryBuffers(int vertexCount, int chunkCount) {
+		if (vertexScreenX.length < vertexCount) {
+			vertexScreenX = new int[vertexCount];
+			vertexScreenY = new int[vertexCount];
+			vertexInvDepth = new float[vertexCount];
+			vertexClipCodes = new byte[vertexCount];
+		}
+		if (geometryChunks.length < chunkCount) {
+			int oldLength = geometryChunks.length;
+			geometryChunks = Arrays.copyOf(geometryChunks, chunkCount);
+			for (int i = oldLength; i < chunkCount; i++) {
+				geometryChunks[i] = new GeometryChunk();
+			}
+		}
+	}
+
+	/**
+	 * adds the triangles of every chunk to the triangles of the frame, and
+	 * creates their sort keys. The chunks are merged in the order of the
+	 * triangles in the mesh, so the triangles end up in the same order no
+	 * matter how many threads computed them.
+	 * 
+	 * @param chunkCount the number of chunks used by the mesh
+	 */
+	private void mergeGeometryChunks(int chunkCount) {
+		for (int i = 0; i < chunkCount; i++) {
+			GeometryChunk chunk = geometryChunks[i];
+			int index = frameTriangleCount;
+			int count = chunk.triangleCount;
+			if (index + count > sortKeys.length) {
+				int length = Math.max(sortKeys.length * 2, index + count);
+				sortKeys = Arrays.copyOf(sortKeys, length);
+				sortScratch = new long[length];
+				framePoints = Arrays.copyOf(framePoints, 6 * length);
+				frameInvDepths = Arrays.copyOf(frameInvDepths, 3 * length);
+				frameColors = Arrays.copyOf(frameColors, length);
+				frameCornerColors = Arrays.copyOf(frameCornerColors,
+						3 * length);
+				frameTextures = Arrays.copyOf(frameTextures, length);
+				frameTextureCoords = Arrays.copyOf(frameTextureCoords,
+						6 * length);
+				frameTextureShading = Arrays.copyOf(frameTextureShading,
+						4 * length);
+				frameSources = Arrays.copyOf(frameSources, length);
+				nextTriangles = new int[length];
+			}
+			System.arraycopy(chunk.points, 0, framePoints, 6 * index,
+					6 * count);
+			System.arraycopy(chunk.invDepths, 0, frameInvDepths, 3 * index,
+					3 * count);
+			System.arraycopy(chunk.colors, 0, frameColors, index, count);
+			System.arraycopy(chunk.cornerColors, 0, frameCornerColors,
+					3 * index, 3 * count);
+			System.arraycopy(chunk.textures, 0, frameTextures, index, count);
+			if (objectTexture != null) {
+				System.arraycopy(chunk.textureCoords, 0, frameTextureCoords,
+						6 * index, 6 * count);
+				System.arraycopy(chunk.textureShading, 0, frameTextureShading,
+						4 * index, 4 * count);
+			}
+			System.arraycopy(chunk.sources, 0, frameSources, index, count);
+			for (int j = 0; j < count; j++) {
+				sortKeys[index] = ((long) chunk.depthKeys[j] << 32) | index;
+				index++;
+			}
+			frameTriangleCount = index;
+			chunk.clear();
+		}
+	}
+
+	/**
+	 * projects a range of vertices of a mesh onto the screen and stores the
+	 * results in the vertex cache, so triangles sharing a vertex don't each
+	 * have to project it again.
+	 * 
+	 * @param vertices    the vertex positions of the mesh in local space,
+	 *                    three values per vertex
+	 * @param firstVertex the first vertex to project
+	 * @param endVertex   one past the last vertex to project
+	 */
+	private void projectVertices(double[] vertices, int firstVertex,
+			int endVertex) {
+		double[] m = objectMatrix;
+		double near = camera.getNearClipDistance();
+		double guardMaxX = getWidth() + GUARD_BAND;
+		double guardMaxY = getHeight() + GUARD_BAND;
+
+		for (int i = firstVertex; i < endVertex; i++) {
+			double x = vertices[i * 3];
+			double y = vertices[i * 3 + 1];
+			double z = vertices[i * 3 + 2];
+
+			// w is the depth along the camera's direction. The z row of the
+			// matrix is constant, so z / w is just the inverse depth.
+			double w = m[8] * x + m[9] * y + m[10] * z + m[11];
+			double invW = 1 / w;
+			double screenX = (m[0] * x + m[1] * y + m[2] * z + m[3]) * invW;
+			double screenY = (m[4] * x + m[5] * y + m[6] * z + m[7]) * invW;
+
+			// the screen position of a vertex in front of the near plane is
+			// meaningless, so it is only tested against the near plane.
+			int clipCode = 0;
+			if (w < near) {
+				clipCode = CLIP_NEAR;
+			} else if (!meshInsideFrustum) {
+				if (screenX < -GUARD_BAND)
+					clipCode |= CLIP_LEFT;
+				else if (screenX > guardMaxX)
+					clipCode |= CLIP_RIGHT;
+				if (screenY < -GUARD_BAND)
+					clipCode |= CLIP_TOP;
+				else if (screenY > guardMaxY)
+					clipCode |= CLIP_BOTTOM;
+			}
+			vertexClipCodes[i] = (byte) clipCode;
+
+			vertexScreenX[i] = (int) screenX;
+			vertexScreenY[i] = (int) screenY;
+			vertexInvDepth[i] = (float) invW;
+		}
+	}
+
+	// calculates the triangles of one chunk of a mesh into that chunk.
+	private void calculateTriangles(Mesh mesh, int chunkIndex) {
+		GeometryChunk chunk = geometryChunks[chunkIndex];
+		int end = Math.min(mesh.getTriangleCount(),
+				(chunkIndex + 1) * GEOMETRY_CHUNK_SIZE);
+		for (int i = chunkIndex * GEOMETRY_CHUNK_SIZE; i < end; i++) {
+			calculateTriangle(mesh, i, chunk);
+		}
+	}
+
+	// calculates the screen coordinates of a single triangle of a mesh from
+	// the projected vertices in the vertex cache. It then adds the resulting
+	// 2d triangle into the chunk, which is merged into the sort qeue later.
+	private void calculateTriangle(Mesh mesh, int triangle,
+			GeometryChunk chunk) {
+		int[] indices = mesh.getTriangleIndices();
+		double[] centers = mesh.getTriangleCenters();
+		double[] normals = mesh.getTriangleNormals();
+		int index1 = indices[triangle * 3];
+		int index2 = indices[triangle * 3 + 1];
+		int index3 = indices[triangle * 3 + 2];
+
+		// vector from the camera to the center of the triangle, in local space
+		double toCenterX = centers[triangle * 3] - localCamX;
+		double toCenterY = centers[triangle * 3 + 1] - localCamY;
+		double toCenterZ = centers[triangle * 3 + 2] - localCamZ;
+		double distanceToTriangle = Math.sqrt(toCenterX * toCenterX
+				+ toCenterZ * toCenterZ + toCenterY * toCenterY);
+
+		if (normals[triangle * 3] * toCenterX
+				+ normals[triangle * 3 + 1] * toCenterY
+				+ normals[triangle * 3 + 2] * toCenterZ > 0 // is the triangle
+															// facing away?
 				|| distanceToTriangle >= camera.getFarClipDistancee() // is the
 																		// triangle
 																		// too
 																		// far
 																		// away?
-				|| distanceToTriangle <= camera.getNearClipDistance() // is the
-																		// triangle
-																		// too
-																		// close?
 		)
 			return;
 
-		// clone the triangle's vertices:
-		Vector3 triangleVertex1 = new Vector3(triangle.vertex1);
-		Vector3 triangleVertex2 = new Vector3(triangle.vertex2);
-		Vector3 triangleVertex3 = new Vector3(triangle.vertex3);
-		// the screen coords of the triangle, to be determined by the rest of
-		// the method.
-		Point p1ScreenCoords = new Point();
-		Point p2ScreenCoords = new Point();
-		Point p3ScreenCoords = new Point();
-		// boolean default false, but set true if just one of the verticies is
-		// within the camera's fov.
-		boolean shouldDrawTriangle = false;
-
-		// get intersection with render plane
-		triangleVertex1 = Vector3.getIntersectionPoint(
-				triangleVertex1.subtract(camPos), camPos, renderPlane);
-
-		// rotate the point:
-		triangleVertex1 = triangleVertex1.subtract(camCenterPoint)
-				.rotate(pointRotationQuaternion);
-
-		// check if it's in the fov
-		if ((Math.abs(triangleVertex1.x) < renderPlaneWidth / 2 * 1.2
-				&& Math.abs(triangleVertex1.y) < renderPlaneWidth
-						* ((double) getHeight() / (double) getWidth()) / 2))
-			shouldDrawTriangle = true;
-
-		// scale to the screen coordinates
-		p1ScreenCoords.x = (int) (getWidth() / 2
-				+ triangleVertex1.x * pixelsPerUnit);
-		p1ScreenCoords.y = (int) (getHeight() / 2
-				- triangleVertex1.y * pixelsPerUnit);
-
-		// repeat for each of the other two vertices
-		triangleVertex2 = Vector3.getIntersectionPoint(
-				triangleVertex2.subtract(camPos), camPos, renderPlane);
-		triangleVertex2 = triangleVertex2.subtract(camCenterPoint)
-				.rotate(pointRotationQuaternion);
-		if ((Math.abs(triangleVertex2.x) < renderPlaneWidth / 2
-				&& Math.abs(triangleVertex2.y) < renderPlaneWidth
-						* ((double) getHeight() / getWidth()) / 2))
-			shouldDrawTriangle = true;
-		p2ScreenCoords.x = (int) (getWidth() / 2
-				+ triangleVertex2.x * pixelsPerUnit);
-		p2ScreenCoords.y = (int) (getHeight() / 2
-				- triangleVertex2.y * pixelsPerUnit);
-
-		triangleVertex3 = Vector3.getIntersectionPoint(
-				triangleVertex3.subtract(camPos), camPos, renderPlane);
-		triangleVertex3 = triangleVertex3.subtract(camCenterPoint)
-				.rotate(pointRotationQuaternion);
-		if ((Math.abs(triangleVertex3.x) < renderPlaneWidth / 2
-				&& Math.abs(triangleVertex3.y) < renderPlaneWidth
-						* ((double) getHeight() / getWidth()) / 2))
-			shouldDrawTriangle = true;
-		p3ScreenCoords.x = (int) (getWidth() / 2
-				+ triangleVertex3.x * pixelsPerUnit);
-		p3ScreenCoords.y = (int) (getHeight() / 2
-				- triangleVertex3.y * pixelsPerUnit);
+		// if all three vertices are outside the same clipping plane, the
+		// triangle can't be seen. If none of them are outside any plane, the
+		// triangle can be drawn without clipping.
+		int clipCode1 = vertexClipCodes[index1];
+		int clipCode2 = vertexClipCodes[index2];
+		int clipCode3 = vertexClipCodes[index3];
+		if ((clipCode1 & clipCode2 & clipCode3) != 0)
+			return;
+		boolean needsClipping = (clipCode1 | clipCode2 | clipCode3) != 0;
+
+		// the triangle is drawn if its bounding box overlaps the screen.
+		boolean shouldDrawTriangle = needsClipping || overlapsScreen(
+				Math.min(vertexScreenX[index1],
+						Math.min(vertexScreenX[index2], vertexScreenX[index3])),
+				Math.min(vertexScreenY[index1],
+						Math.min(vertexScreenY[index2], vertexScreenY[index3])),
+				Math.max(vertexScreenX[index1],
+						Math.max(vertexScreenX[index2], vertexScreenX[index3])),
+				Math.max(vertexScreenY[index1],
+						Math.max(vertexScreenY[index2], vertexScreenY[index3])));
 
 		if (shouldDrawTriangle) {
-			int colorUsed = 16711935;
-			if (triangle.getMesh() != null && triangle.getMesh().isShaded()) {
-				Color litColor = triangle.getColorWithLighting();
-				if (fogEnabled && distanceToTriangle > fogStartDistance) {
-					if (distanceToTriangle > fullFogDistance) {
-						colorUsed = convertToIntRGB(fogR, fogG, fogB);
-					} else {
-						// skews the triangle's color closer to the fog color as
-						// a function of distance.
-						double fogAmt = (distanceToTriangle - fogStartDistance)
-								/ (fullFogDistance - fogStartDistance);
-						int red = (int) Math.max(0,
-								Math.min(225,
-										litColor.getRed()
-												+ (fogR - litColor.getRed())
-														* fogAmt * fogAmt));
-						int green = (int) Math.max(0,
-								Math.min(225,
-										litColor.getGreen()
-												+ (fogG - litColor.getGreen())
-														* fogAmt * fogAmt));
-						int blue = (int) Math.max(0,
-								Math.min(225,
-										litColor.getBlue()
-												+ (fogB - litColor.getBlue())
-														* fogAmt * fogAmt));
-
-						colorUsed = convertToIntRGB(red, green, blue);
-					}
-				} else
-					colorUsed = convertToIntRGB(litColor);
-			} else
-				colorUsed = convertToIntRGB(triangle.getBaseColor());
-
-			// adds the 2d triangle object into the triangle2d array.
-			if ((int) distanceToTriangle < sortQeue.length)
-				sortQeue[(int) distanceToTriangle]
-						.add(new Triangle2D(p1ScreenCoords, p2ScreenCoords,
-								p3ScreenCoords, colorUsed));
-			else
-				sortQeue[sortQeue.length - 1].add(new Triangle2D(p1ScreenCoords,
-						p2ScreenCoords, p3ScreenCoords, colorUsed));
+			int color1, color2, color3;
+			int fogAmount = 0;
+			if (mesh.isShaded()) {
+				// skews the triangle's color closer to the fog color as a
+				// function of distance, looked up in the fog table.
+				if (fogEnabled && distanceToTriangle > fogStartDistance)
+					fogAmount = fogTable[(int) Math.min(FOG_TABLE_SIZE,
+							(distanceToTriangle - fogStartDistance)
+									* fogTableScale)];
+				int litColor = objectTriangleColors[triangle];
+				if (objectVertexBrightness != null) {
+					color1 = blendColors(Lighting.brighten(litColor,
+							objectVertexBrightness[index1]), fogColor,
+							fogAmount);
+					color2 = blendColors(Lighting.brighten(litColor,
+							objectVertexBrightness[index2]), fogColor,
+							fogAmount);
+					color3 = blendColors(Lighting.brighten(litColor,
+							objectVertexBrightness[index3]), fogColor,
+							fogAmount);
+				} else {
+					color1 = blendColors(litColor, fogColor, fogAmount);
+					color2 = color1;
+					color3 = color1;
+				}
+			} else {
+				color1 = mesh.getTriangleColors()[triangle];
+				color2 = color1;
+				color3 = color1;
+			}
+
+			// textured triangles are lit and fogged per pixel, by the
+			// brightness of their corners and the fog amount.
+			float u1 = 0, v1 = 0, u2 = 0, v2 = 0, u3 = 0, v3 = 0;
+			int brightness1 = 0, brightness2 = 0, brightness3 = 0;
+			if (objectTexture != null) {
+				double[] textureCoords = mesh.getTextureCoords();
+				int[] cornerTextureIndices = mesh.getCornerTextureIndices();
+				int t1 = cornerTextureIndices[triangle * 3] * 2;
+				int t2 = cornerTextureIndices[triangle * 3 + 1] * 2;
+				int t3 = cornerTextureIndices[triangle * 3 + 2] * 2;
+				u1 = (float) textureCoords[t1];
+				v1 = (float) textureCoords[t1 + 1];
+				u2 = (float) textureCoords[t2];
+				v2 = (float) textureCoords[t2 + 1];
+				u3 = (float) textureCoords[t3];
+				v3 = (float) textureCoords[t3 + 1];
+				if (objectVertexBrightness != null) {
+					brightness1 = objectVertexBrightness[index1];
+					brightness2 = objectVertexBrightness[index2];
+					brightness3 = objectVertexBrightness[index3];
+				} else if (objectTriangleBrightness != null) {
+					brightness1 = objectTriangleBrightness[triangle];
+					brightness2 = brightness1;
+					brightness3 = brightness1;
+				}
+			}
+
+			int depthKey = depthKey(distanceToTriangle);
+			int source = objectSourceBase + triangle;
+			if (needsClipping) {
+				double[] vertices = mesh.getVertexPositions();
+				chunk.setClipVertex(0, vertices, index1, color1, u1, v1,
+						brightness1);
+				chunk.setClipVertex(1, vertices, index2, color2, u2, v2,
+						brightness2);
+				chunk.setClipVertex(2, vertices, index3, color3, u3, v3,
+						brightness3);
+				clipTriangle(fogAmount, depthKey, source, chunk);
+				return;
+			}
+
+			// adds the 2d triangle into the chunk.
+			int added = chunk.add(color1, depthKey, source);
+			chunk.setCorner(added, 0, vertexScreenX[index1],
+					vertexScreenY[index1], vertexInvDepth[index1], color1);
+			chunk.setCorner(added, 1, vertexScreenX[index2],
+					vertexScreenY[index2], vertexInvDepth[index2], color2);
+			chunk.setCorner(added, 2, vertexScreenX[index3],
+					vertexScreenY[index3], vertexInvDepth[index3], color3);
+			if (objectTexture != null) {
+				chunk.setTexture(added, objectTexture, fogAmount);
+				chunk.setTextureCorner(added, 0, u1, v1, brightness1);
+				chunk.setTextureCorner(added, 1, u2, v2, brightness2);
+				chunk.setTextureCorner(added, 2, u3, v3, brightness3);
+			}
+		}
+	}
+
+	// does a box in screen coordinates overlap the screen?
+	private boolean overlapsScreen(int minX, int minY, int maxX, int maxY) {
+		return maxX >= 0 && minX < getWidth() && maxY >= 0
+				&& minY < getHeight();
+	}
+
+	/**
+	 * clips a triangle against the near plane and the guard band with the
+	 * Sutherland-Hodgman algorithm, and adds the resulting polygon into the
+	 * chunk as a fan of triangles. Clipping is done in clip space, where a
+	 * vertex is (x, y, w) before the perspective divide, so the new vertices
+	 * and their colors, texture coordinates and brightness are interpolated
+	 * correctly along the edges. The corners of the triangle are set with
+	 * {@link GeometryChunk#setClipVertex} first.
+	 * 
+	 * @param fogAmount the fog amount of the triangle, if it is textured
+	 * @param depthKey  the depth key the triangles are sorted by
+	 * @param source    the source of the triangles
+	 * @param chunk     the chunk the resulting triangles are added to
+	 */
+	private void clipTriangle(int fogAmount, int depthKey, int source,
+			GeometryChunk chunk) {
+		// each plane is a * x + b * y + c * w + d >= 0.
+		int count = 3;
+		count = chunk.clipPolygon(count, 0, 0, 1,
+				-camera.getNearClipDistance());
+		count = chunk.clipPolygon(count, 1, 0, GUARD_BAND, 0);
+		count = chunk.clipPolygon(count, -1, 0, getWidth() + GUARD_BAND, 0);
+		count = chunk.clipPolygon(count, 0, 1, GUARD_BAND, 0);
+		count = chunk.clipPolygon(count, 0, -1, getHeight() + GUARD_BAND, 0);
+		if (count < 3)
+			return;
+
+		// the perspective divide of the clipped polygon.
+		double[] polygon = chunk.clipPolygon;
+		int[] xs = chunk.clippedX;
+		int[] ys = chunk.clippedY;
+		float[] invDepths = chunk.clippedInvDepths;
+		int[] colors = chunk.clippedColors;
+		float[] us = chunk.clippedU;
+		float[] vs = chunk.clippedV;
+		int[] brightness = chunk.clippedBrightness;
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			int v = i * CLIP_STRIDE;
+			double invW = 1 / polygon[v + 2];
+			xs[i] = (int) (polygon[v] * invW);
+			ys[i] = (int) (polygon[v + 1] * invW);
+			invDepths[i] = (float) invW;
+			colors[i] = ((int) (polygon[v + 3] + 0.5) << 16)
+					| ((int) (polygon[v + 4] + 0.5) << 8)
+					| (int) (polygon[v + 5] + 0.5);
+			us[i] = (float) polygon[v + 6];
+			vs[i] = (float) polygon[v + 7];
+			brightness[i] = (int) Math.floor(polygon[v + 8] + 0.5);
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		if (!overlapsScreen(minX, minY, maxX, maxY))
+			return;
+
+		for (int i = 1; i < count - 1; i++) {
+			int added = chunk.add(colors[0], depthKey, source);
+			chunk.setCorner(added, 0, xs[0], ys[0], invDepths[0], colors[0]);
+			chunk.setCorner(added, 1, xs[i], ys[i], invDepths[i], colors[i]);
+			chunk.setCorner(added, 2, xs[i + 1], ys[i + 1], invDepths[i + 1],
+					colors[i + 1]);
+			if (objectTexture != null) {
+				chunk.setTexture(added, objectTexture, fogAmount);
+				chunk.setTextureCorner(added, 0, us[0], vs[0], brightness[0]);
+				chunk.setTextureCorner(added, 1, us[i], vs[i], brightness[i]);
+				chunk.setTextureCorner(added, 2, us[i + 1], vs[i + 1],
+						brightness[i + 1]);
+			}
 		}
 	}
 
 	/**
-	 * calculates the integer rgb value of a color, which is used for buffered
-	 * images.
+	 * blends two packed rgb colors. The red and blue channels are blended
+	 * together in one multiplication, since each channel times 256 still fits
+	 * in the 16 bits between them.
 	 * 
-	 * @param r the red value of the color
-	 * @param g the green value of the color
-	 * @param b the blue value of the color
-	 * @return the integer rgb value of a color, which is used for buffered
-	 *         images.
+	 * @param rgb1   the first color
+	 * @param rgb2   the second color
+	 * @param amount how much of the second color to use, from 0 to 256
+	 * @return the blended color
 	 */
-	private int convertToIntRGB(int r, int g, int b) {
-		return 65536 * r + 256 * g + b;
+	private static int blendColors(int rgb1, int rgb2, int amount) {
+		int inverse = 256 - amount;
+		int redBlue = (((rgb1 & 0xFF00FF) * inverse
+				+ (rgb2 & 0xFF00FF) * amount) >>> 8) & 0xFF00FF;
+		int green = (((rgb1 & 0xFF00) * inverse + (rgb2 & 0xFF00) * amount)
+				>>> 8) & 0xFF00;
+		return redBlue | green;
 	}
 
 	/**
@@ -521,229 +1664,714 @@ public class RenderingPanel extends JPanel implements Runnable {
 	}
 
 	/**
-	 * paints a solid triangle on the buffered image with verticies at
-	 * {@code p1}, {@code p2} and {@code p3}. Uses a scanline algorithm by
-	 * interpolating the left and right edge of the lines. draws the upper part
-	 * and then the lower part of the triangle. This method is much faster at
-	 * drawing triangles than Graphics' fillPolygon() method.
+	 * paints a solid triangle on the buffered image. Uses a scanline algorithm
+	 * by interpolating the left and right edge of the lines. draws the upper
+	 * part and then the lower part of the triangle. This method is much faster
+	 * at drawing triangles than Graphics' fillPolygon() method.
+	 * <p>
+	 * When the depth buffer is enabled, the inverse depth of the triangle is
+	 * interpolated across each span (it is linear in screen space, unlike the
+	 * depth itself) and pixels behind what is already drawn are rejected
+	 * before they are written.
+	 * <p>
+	 * With smooth shading, the red, green and blue of the corner colors are
+	 * interpolated the same way. Each span steps through them in fixed point,
+	 * so a shaded pixel only costs a few integer additions.
 	 * 
-	 * @param p1  point 1
-	 * @param p2  point 2
-	 * @param p3  point 3
-	 * @param rgb the color of the triangle using rgb
+	 * @param triangle the index of the triangle to paint
+	 * @param clipMinX the left bound of the area that may be painted
+	 * @param clipMinY the upper bound of the area that may be painted
+	 * @param clipMaxX the right bound (exclusive) of the area that may be
+	 *                 painted
+	 * @param clipMaxY the lower bound (exclusive) of the area that may be
+	 *                 painted
 	 */
-	private void paintTriangle(Point p1, Point p2, Point p3, int rgb) {
-		Point high = p1;
-		Point middle = p2;
-		Point low = p3;
+	private void paintTriangle(int triangle, int clipMinX, int clipMinY,
+			int clipMaxX, int clipMaxY) {
+		int[] points = framePoints;
+		int x1 = points[triangle * 6];
+		int y1 = points[triangle * 6 + 1];
+		int x2 = points[triangle * 6 + 2];
+		int y2 = points[triangle * 6 + 3];
+		int x3 = points[triangle * 6 + 4];
+		int y3 = points[triangle * 6 + 5];
+		// the corners (0 to 2) which are the highest, middle and lowest.
+		int high = 0;
+		int middle = 1;
+		int low = 2;
 
 		// note that the highest point will actually have the lower y value
 		// because 0,0 in the screen
 		// is the top left corner.
-		if (p1.y >= p2.y || p2.y >= p3.y) // checks if the sequence isnt p1, p2,
-											// p3
+		if (y1 >= y2 || y2 >= y3) // checks if the sequence isnt p1, p2, p3
 		{
-			if (p1.y < p2.y) {
-				if (p3.y < p1.y) {
-					high = p3;
-					middle = p1;
-					low = p2;
+			if (y1 < y2) {
+				if (y3 < y1) {
+					high = 2;
+					middle = 0;
+					low = 1;
 				} else {
-					middle = p3;
-					low = p2;
+					middle = 2;
+					low = 1;
 				}
 			} else {
-				if (p2.y < p3.y) {
-					high = p2;
-					if (p1.y < p3.y) {
-						middle = p1;
+				if (y2 < y3) {
+					high = 1;
+					if (y1 < y3) {
+						middle = 0;
 					} else {
-						middle = p3;
-						low = p1;
+						middle = 2;
+						low = 0;
 					}
 				} else {
-					high = p3;
-					low = p1;
+					high = 2;
+					low = 0;
 				}
 			}
 		}
+		int highX = points[triangle * 6 + high * 2];
+		int highY = points[triangle * 6 + high * 2 + 1];
+		int middleX = points[triangle * 6 + middle * 2];
+		int middleY = points[triangle * 6 + middle * 2 + 1];
+		int lowX = points[triangle * 6 + low * 2];
+		int lowY = points[triangle * 6 + low * 2 + 1];
+		int color = frameColors[triangle];
+		if (frameTextures[triangle] != null) {
+			paintTexturedTriangle(triangle, highX, highY, middleX, middleY,
+					lowX, lowY, clipMinX, clipMinY, clipMaxX, clipMaxY);
+			return;
+		}
+
+		// inverse depth as a plane in screen space: depthOrigin + x * depthStepX
+		// + y * depthStepY
+		double depthStepX = 0;
+		double depthStepY = 0;
+		double depthOrigin = 0;
+		if (depthBufferEnabled) {
+			float invDepth1 = frameInvDepths[triangle * 3];
+			float invDepth2 = frameInvDepths[triangle * 3 + 1];
+			float invDepth3 = frameInvDepths[triangle * 3 + 2];
+			double area = (double) (x2 - x1) * (y3 - y1)
+					- (double) (x3 - x1) * (y2 - y1);
+			if (area != 0) {
+				depthStepX = ((invDepth2 - invDepth1) * (y3 - y1)
+						- (invDepth3 - invDepth1) * (y2 - y1)) / area;
+				depthStepY = ((invDepth3 - invDepth1) * (x2 - x1)
+						- (invDepth2 - invDepth1) * (x3 - x1)) / area;
+			}
+			depthOrigin = invDepth1 - x1 * depthStepX - y1 * depthStepY;
+		}
+
+		// the color channels as planes like the inverse depth, when the
+		// corners have different colors.
+		boolean shaded = false;
+		double redStepX = 0, redStepY = 0, redOrigin = 0;
+		double greenStepX = 0, greenStepY = 0, greenOrigin = 0;
+		double blueStepX = 0, blueStepY = 0, blueOrigin = 0;
+		if (smoothShadingEnabled) {
+			int color1 = frameCornerColors[triangle * 3];
+			int color2 = frameCornerColors[triangle * 3 + 1];
+			int color3 = frameCornerColors[triangle * 3 + 2];
+			double area = (double) (x2 - x1) * (y3 - y1)
+					- (double) (x3 - x1) * (y2 - y1);
+			if ((color1 != color2 || color1 != color3) && area != 0) {
+				shaded = true;
+				double dx2 = (x2 - x1) / area;
+				double dx3 = (x3 - x1) / area;
+				double dy2 = (y2 - y1) / area;
+				double dy3 = (y3 - y1) / area;
+				int red1 = (color1 >> 16) & 255;
+				int red2 = ((color2 >> 16) & 255) - red1;
+				int red3 = ((color3 >> 16) & 255) - red1;
+				redStepX = red2 * dy3 - red3 * dy2;
+				redStepY = red3 * dx2 - red2 * dx3;
+				redOrigin = red1 - x1 * redStepX - y1 * redStepY;
+				int green1 = (color1 >> 8) & 255;
+				int green2 = ((color2 >> 8) & 255) - green1;
+				int green3 = ((color3 >> 8) & 255) - green1;
+				greenStepX = green2 * dy3 - green3 * dy2;
+				greenStepY = green3 * dx2 - green2 * dx3;
+				greenOrigin = green1 - x1 * greenStepX - y1 * greenStepY;
+				int blue1 = color1 & 255;
+				int blue2 = (color2 & 255) - blue1;
+				int blue3 = (color3 & 255) - blue1;
+				blueStepX = blue2 * dy3 - blue3 * dy2;
+				blueStepY = blue3 * dx2 - blue2 * dx3;
+				blueOrigin = blue1 - x1 * blueStepX - y1 * blueStepY;
+			}
+		}
 
 		// the y-level of the horizontal line being drawn
 		int yScanLine;
-		// the left or right bounds of the line being drawn
-		int scanlineEdge1, scanlineEdge2;
+		// the left or right bounds of the line being drawn, before they are
+		// clipped
+		int scanlineEdge1, scanlineEdge2, lineStart, lineEnd;
+		// the slopes of the short and long edge of the triangle half being
+		// drawn. Vertical edges have an infinite slope, which makes the edge's
+		// x value constant.
+		double shortEdgeSlope, longEdgeSlope;
 
 		// Top part of triangle:
-		if (middle.y - high.y != 0 && low.y - high.y != 0) {
-			// conditionals to account for the cases where the slope of a line
-			// of the triangle is undefined/vertical.
-			if (middle.x - high.x == 0) {
-				scanlineEdge1 = Math.max(0,
-						Math.min(renderImage.getWidth(), high.x));
-				for (yScanLine = high.y; yScanLine < middle.y
-						&& yScanLine < renderImage.getHeight(); yScanLine++) {
-					if (yScanLine >= 0) {
-						scanlineEdge2 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - high.y)
-												/ ((double) (low.y - high.y)
-														/ (low.x - high.x))
-												+ high.x)));
-						int[] pixelData = new int[Math
-								.abs(scanlineEdge1 - scanlineEdge2) + 1];
-						Arrays.fill(pixelData, rgb);
-						drawHorizontalLine(
-								Math.min(scanlineEdge1, scanlineEdge2),
-								yScanLine, pixelData);
-					}
-				}
-			} else if (low.x - high.x == 0) {
-				scanlineEdge2 = Math.max(0,
-						Math.min(renderImage.getWidth(), high.x));
-				for (yScanLine = high.y; yScanLine < middle.y
-						&& yScanLine < renderImage.getHeight(); yScanLine++) {
-					if (yScanLine >= 0) {
-						scanlineEdge1 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - high.y)
-												/ ((double) (middle.y - high.y)
-														/ (middle.x - high.x))
-												+ high.x)));
-						int[] pixelData = new int[Math
-								.abs(scanlineEdge1 - scanlineEdge2) + 1];
-						Arrays.fill(pixelData, rgb);
-						drawHorizontalLine(
-								Math.min(scanlineEdge1, scanlineEdge2),
-								yScanLine, pixelData);
-					}
-				}
-			} else {
-				for (yScanLine = high.y; yScanLine < middle.y
-						&& yScanLine < renderImage.getHeight(); yScanLine++) {
-					if (yScanLine >= 0) {
-						scanlineEdge1 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - high.y)
-												/ ((double) (middle.y - high.y)
-														/ (middle.x - high.x))
-												+ high.x)));
-						scanlineEdge2 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - high.y)
-												/ ((double) (low.y - high.y)
-														/ (low.x - high.x))
-												+ high.x)));
-
-						int[] pixelData = new int[Math
-								.abs(scanlineEdge1 - scanlineEdge2) + 1];
-						Arrays.fill(pixelData, rgb);
-						drawHorizontalLine(
-								Math.min(scanlineEdge1, scanlineEdge2),
-								yScanLine, pixelData);
-					}
-				}
+		if (middleY - highY != 0 && lowY - highY != 0) {
+			shortEdgeSlope = (double) (middleY - highY) / (middleX - highX);
+			longEdgeSlope = (double) (lowY - highY) / (lowX - highX);
+			for (yScanLine = Math.max(highY, clipMinY); yScanLine < middleY
+					&& yScanLine < clipMaxY; yScanLine++) {
+				scanlineEdge1 = (int) ((yScanLine - highY) / shortEdgeSlope
+						+ highX);
+				scanlineEdge2 = (int) ((yScanLine - highY) / longEdgeSlope
+						+ highX);
+				lineStart = Math.min(scanlineEdge1, scanlineEdge2);
+				lineEnd = Math.max(scanlineEdge1, scanlineEdge2);
+				if (shaded)
+					drawShadedLine(lineStart, lineEnd, clipMinX, clipMaxX,
+							yScanLine, redOrigin + yScanLine * redStepY,
+							redStepX, greenOrigin + yScanLine * greenStepY,
+							greenStepX, blueOrigin + yScanLine * blueStepY,
+							blueStepX, depthOrigin + yScanLine * depthStepY,
+							depthStepX);
+				else
+					drawHorizontalLine(
+							Math.max(clipMinX, Math.min(clipMaxX, lineStart)),
+							Math.max(clipMinX, Math.min(clipMaxX, lineEnd)),
+							yScanLine, color,
+							depthOrigin + yScanLine * depthStepY, depthStepX);
 			}
 		}
 
 		// bottom part of triangle:
-		if (low.y - middle.y != 0 && low.y - high.y != 0) {
-			// conditionals to account for the cases where the slope of a line
-			// of the triangle is vertical.
-			if (low.x - middle.x == 0) {
-				scanlineEdge1 = Math.max(0,
-						Math.min(renderImage.getWidth(), middle.x));
-				for (yScanLine = middle.y; yScanLine < low.y
-						&& yScanLine < renderImage.getHeight(); yScanLine++) {
-					if (yScanLine >= 0) {
-						scanlineEdge2 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - low.y)
-												/ ((double) (low.y - high.y)
-														/ (low.x - high.x))
-												+ low.x)));
-						int[] pixelData = new int[Math
-								.abs(scanlineEdge1 - scanlineEdge2) + 1];
-						Arrays.fill(pixelData, rgb);
-						drawHorizontalLine(
-								Math.min(scanlineEdge1, scanlineEdge2),
-								yScanLine, pixelData);
-					}
-				}
-			} else if (low.x - high.x == 0) {
-				scanlineEdge2 = Math.max(0,
-						Math.min(renderImage.getWidth(), low.x));
-				for (yScanLine = middle.y; yScanLine < low.y
-						&& yScanLine < renderImage.getHeight(); yScanLine++) {
-					if (yScanLine >= 0) {
-						scanlineEdge1 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - low.y)
-												/ ((double) (low.y - middle.y)
-														/ (low.x - middle.x))
-												+ low.x)));
-						int[] pixelData = new int[Math
-								.abs(scanlineEdge1 - scanlineEdge2) + 1];
-						Arrays.fill(pixelData, rgb);
-						drawHorizontalLine(
-								Math.min(scanlineEdge1, scanlineEdge2),
-								yScanLine, pixelData);
-					}
-				}
+		if (lowY - middleY != 0 && lowY - highY != 0) {
+			shortEdgeSlope = (double) (lowY - middleY) / (lowX - middleX);
+			longEdgeSlope = (double) (lowY - highY) / (lowX - highX);
+			for (yScanLine = Math.max(middleY, clipMinY); yScanLine < lowY
+					&& yScanLine < clipMaxY; yScanLine++) {
+				scanlineEdge1 = (int) ((yScanLine - lowY) / shortEdgeSlope
+						+ lowX);
+				scanlineEdge2 = (int) ((yScanLine - lowY) / longEdgeSlope
+						+ lowX);
+				lineStart = Math.min(scanlineEdge1, scanlineEdge2);
+				lineEnd = Math.max(scanlineEdge1, scanlineEdge2);
+				if (shaded)
+					drawShadedLine(lineStart, lineEnd, clipMinX, clipMaxX,
+							yScanLine, redOrigin + yScanLine * redStepY,
+							redStepX, greenOrigin + yScanLine * greenStepY,
+							greenStepX, blueOrigin + yScanLine * blueStepY,
+							blueStepX, depthOrigin + yScanLine * depthStepY,
+							depthStepX);
+				else
+					drawHorizontalLine(
+							Math.max(clipMinX, Math.min(clipMaxX, lineStart)),
+							Math.max(clipMinX, Math.min(clipMaxX, lineEnd)),
+							yScanLine, color,
+							depthOrigin + yScanLine * depthStepY, depthStepX);
+			}
+		}
+	}
+
+	// draws a horizontal line from startOfLineX (inclusive) to endOfLineX
+	// (exclusive) with the specified integer rgb color, straight into the
+	// pixel array of the buffered image. With the depth buffer enabled, only
+	// the pixels closer than what was drawn before are written. rowDepth is
+	// the inverse depth at x = 0 and depthStepX the change in inverse depth
+	// per pixel.
+	private void drawHorizontalLine(int startOfLineX, int endOfLineX,
+			int levelY, int rgb, double rowDepth, double depthStepX) {
+		int rowStart = levelY * imageWidth;
+		if (!depthBufferEnabled) {
+			Arrays.fill(pixels, rowStart + startOfLineX, rowStart + endOfLineX,
+					rgb);
+			return;
+		}
+
+		double depth = rowDepth + startOfLineX * depthStepX;
+		for (int i = rowStart + startOfLineX; i < rowStart
+				+ endOfLineX; i++) {
+			if (depth > depthBuffer[i]) {
+				depthBuffer[i] = (float) depth;
+				pixels[i] = rgb;
+			}
+			depth += depthStepX;
+		}
+	}
+
+	// picks the mipmap level of the texture closest to one texel per pixel for
+	// a triangle. The area the triangle covers in the full size texture over
+	// its area on the screen is the number of texels per pixel, squared, and
+	// each level has a quarter of the texels of the one before it, so the
+	// level is half the base 2 logarithm of that ratio, rounded. Choosing one
+	// level for the whole triangle keeps the inner loop as it is.
+	private static int selectTextureLevel(Texture texture, float[] coords,
+			int triangle, double screenArea) {
+		double u1 = coords[triangle * 6];
+		double v1 = coords[triangle * 6 + 1];
+		double textureArea = ((coords[triangle * 6 + 2] - u1)
+				* (coords[triangle * 6 + 5] - v1)
+				- (coords[triangle * 6 + 4] - u1)
+						* (coords[triangle * 6 + 3] - v1))
+				* texture.getWidth(0) * texture.getHeight(0);
+		double ratio = Math.abs(textureArea / screenArea);
+		// half of floor(log2(2 * ratio)) is log2(ratio) / 2 rounded.
+		int level = Math.getExponent(2 * ratio) >> 1;
+		return Math.max(0, Math.min(texture.getLevelCount() - 1, level));
+	}
+
+	/**
+	 * paints a textured triangle, covering the same pixels as
+	 * {@link #paintTriangle}. The texture coordinates divided by the depth
+	 * and the inverse depth are linear in screen space, so they are stepped
+	 * across each span and the texture coordinates of each pixel are found
+	 * by dividing them again, which corrects for perspective. The brightness
+	 * of the corners is stepped in 16.16 fixed point and added to each texel
+	 * like {@link Lighting#brighten}, and then the fog color is blended in.
+	 * The texture is sampled from the mipmap level picked by
+	 * {@link #selectTextureLevel}.
+	 * 
+	 * @param triangle the index of the triangle to paint
+	 * @param highX    x of the highest corner
+	 * @param highY    y of the highest corner
+	 * @param middleX  x of the middle corner
+	 * @param middleY  y of the middle corner
+	 * @param lowX     x of the lowest corner
+	 * @param lowY     y of the lowest corner
+	 * @param clipMinX the left bound of the area that may be painted
+	 * @param clipMinY the upper bound of the area that may be painted
+	 * @param clipMaxX the right bound (exclusive) of the area that may be
+	 *                 painted
+	 * @param clipMaxY the lower bound (exclusive) of the area that may be
+	 *                 painted
+	 */
+	private void paintTexturedTriangle(int triangle, int highX, int highY,
+			int middleX, int middleY, int lowX, int lowY, int clipMinX,
+			int clipMinY, int clipMaxX, int clipMaxY) {
+		int x1 = framePoints[triangle * 6];
+		int y1 = framePoints[triangle * 6 + 1];
+		int x2 = framePoints[triangle * 6 + 2];
+		int y2 = framePoints[triangle * 6 + 3];
+		int x3 = framePoints[triangle * 6 + 4];
+		int y3 = framePoints[triangle * 6 + 5];
+		double area = (double) (x2 - x1) * (y3 - y1)
+				- (double) (x3 - x1) * (y2 - y1);
+		if (area == 0 || lowY == highY)
+			return;
+		double dx2 = (x2 - x1) / area;
+		double dx3 = (x3 - x1) / area;
+		double dy2 = (y2 - y1) / area;
+		double dy3 = (y3 - y1) / area;
+
+		Texture texture = frameTextures[triangle];
+		float[] coords = frameTextureCoords;
+		int level = selectTextureLevel(texture, coords, triangle, area);
+		int[] texels = texture.getPixels(level);
+		int widthShift = texture.getWidthShift(level);
+		int textureWidth = texture.getWidth(level);
+		int textureHeight = texture.getHeight(level);
+		int widthMask = textureWidth - 1;
+		int heightMask = textureHeight - 1;
+
+		// the inverse depth and the texture coordinates in texels divided by
+		// the depth, as planes in screen space.
+		float invDepth1 = frameInvDepths[triangle * 3];
+		float invDepth2 = frameInvDepths[triangle * 3 + 1];
+		float invDepth3 = frameInvDepths[triangle * 3 + 2];
+		double depthStepX = (invDepth2 - invDepth1) * dy3
+				- (invDepth3 - invDepth1) * dy2;
+		double depthStepY = (invDepth3 - invDepth1) * dx2
+				- (invDepth2 - invDepth1) * dx3;
+		double depthOrigin = invDepth1 - x1 * depthStepX - y1 * depthStepY;
+
+		double u1 = coords[triangle * 6] * textureWidth * invDepth1;
+		double u2 = coords[triangle * 6 + 2] * textureWidth * invDepth2 - u1;
+		double u3 = coords[triangle * 6 + 4] * textureWidth * invDepth3 - u1;
+		double uStepX = u2 * dy3 - u3 * dy2;
+		double uStepY = u3 * dx2 - u2 * dx3;
+		double uOrigin = u1 - x1 * uStepX - y1 * uStepY;
+		double v1 = coords[triangle * 6 + 1] * textureHeight * invDepth1;
+		double v2 = coords[triangle * 6 + 3] * textureHeight * invDepth2 - v1;
+		double v3 = coords[triangle * 6 + 5] * textureHeight * invDepth3 - v1;
+		double vStepX = v2 * dy3 - v3 * dy2;
+		double vStepY = v3 * dx2 - v2 * dx3;
+		double vOrigin = v1 - x1 * vStepX - y1 * vStepY;
+
+		int brightness1 = frameTextureShading[triangle * 4];
+		int brightness2 = frameTextureShading[triangle * 4 + 1] - brightness1;
+		int brightness3 = frameTextureShading[triangle * 4 + 2] - brightness1;
+		double brightnessStepX = brightness2 * dy3 - brightness3 * dy2;
+		double brightnessStepY = brightness3 * dx2 - brightness2 * dx3;
+		double brightnessOrigin = brightness1 - x1 * brightnessStepX
+				- y1 * brightnessStepY;
+		int brightnessStep = (int) (brightnessStepX * 65536);
+		boolean lit = brightness1 != 0 || brightness2 != 0
+				|| brightness3 != 0;
+		int fogAmount = frameTextureShading[triangle * 4 + 3];
+
+		// the edges are found the same way as in paintTriangle, so textured
+		// and untextured triangles meet without gaps.
+		double longEdgeSlope = (double) (lowY - highY) / (lowX - highX);
+		double upperEdgeSlope = (double) (middleY - highY) / (middleX - highX);
+		double lowerEdgeSlope = (double) (lowY - middleY) / (lowX - middleX);
+		for (int y = Math.max(highY, clipMinY); y < lowY
+				&& y < clipMaxY; y++) {
+			int edge1, edge2;
+			if (y < middleY) {
+				edge1 = (int) ((y - highY) / upperEdgeSlope + highX);
+				edge2 = (int) ((y - highY) / longEdgeSlope + highX);
 			} else {
-				for (yScanLine = middle.y; yScanLine < low.y
-						&& yScanLine < renderImage.getHeight(); yScanLine++) {
-					if (yScanLine >= 0) {
-						scanlineEdge1 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - low.y)
-												/ ((double) (low.y - middle.y)
-														/ (low.x - middle.x))
-												+ low.x)));
-						scanlineEdge2 = Math.max(0,
-								Math.min(renderImage.getWidth(),
-										(int) ((yScanLine - low.y)
-												/ ((double) (low.y - high.y)
-														/ (low.x - high.x))
-												+ low.x)));
-
-						int[] pixelData = new int[Math
-								.abs(scanlineEdge1 - scanlineEdge2) + 1];
-						Arrays.fill(pixelData, rgb);
-						drawHorizontalLine(
-								Math.min(scanlineEdge1, scanlineEdge2),
-								yScanLine, pixelData);
+				edge1 = (int) ((y - lowY) / lowerEdgeSlope + lowX);
+				edge2 = (int) ((y - lowY) / longEdgeSlope + lowX);
+			}
+			int x = Math.max(clipMinX, Math.min(edge1, edge2));
+			int end = Math.min(clipMaxX, Math.max(edge1, edge2));
+			int rowStart = y * imageWidth;
+			double rowDepth = depthOrigin + y * depthStepY;
+			double rowU = uOrigin + y * uStepY;
+			double rowV = vOrigin + y * vStepY;
+			double rowBrightness = brightnessOrigin + y * brightnessStepY;
+			while (x < end) {
+				int blockEnd = Math.min(end,
+						(x + TEXTURE_BLOCK_SIZE) & -TEXTURE_BLOCK_SIZE);
+				double depth = rowDepth + x * depthStepX;
+				double uOverDepth = rowU + x * uStepX;
+				double vOverDepth = rowV + x * vStepX;
+				int brightness = (int) ((rowBrightness + x * brightnessStepX)
+						* 65536);
+				for (; x < blockEnd; x++) {
+					int i = rowStart + x;
+					if (!depthBufferEnabled || depth > depthBuffer[i]) {
+						double w = 1 / depth;
+						// the bias makes the casts round down, so negative
+						// coordinates wrap like in Texture.getColor.
+						int column = (int) (uOverDepth * w
+								+ Texture.TEXEL_BIAS) & widthMask;
+						int row = (int) (vOverDepth * w
+								+ Texture.TEXEL_BIAS) & heightMask;
+						int texel = texels[(row << widthShift) + column];
+						if (lit)
+							texel = Lighting.brighten(texel, brightness >> 16);
+						if (fogAmount != 0)
+							texel = blendColors(texel, fogColor, fogAmount);
+						if (depthBufferEnabled)
+							depthBuffer[i] = (float) depth;
+						pixels[i] = texel;
 					}
+					depth += depthStepX;
+					uOverDepth += uStepX;
+					vOverDepth += vStepX;
+					brightness += brightnessStep;
 				}
 			}
 		}
 	}
 
-	// draws a horizontal line with the given constraints and the specified
-	// integer rgb color.
-	private void drawHorizontalLine(int startOFLineX, int levelY,
-			int[] pixelColorData) {
-		renderImage.getRaster().setDataElements(startOFLineX, levelY,
-				pixelColorData.length - 1, 1, pixelColorData);
+	// draws a horizontal line like drawHorizontalLine, with each color
+	// channel changing linearly along it. rowRed is the red at x = 0 and
+	// redStepX its change per pixel, and the same for green and blue. The
+	// colors at both ends of the whole line are clamped to 0 to 255 and
+	// converted to 16.16 fixed point, and the line steps from one to the
+	// other, so the colors in between never leave that range. Only the part
+	// between clipMinX and clipMaxX is drawn, with the same colors as if the
+	// whole line was drawn, so tiles meet without seams.
+	private void drawShadedLine(int startOfLineX, int endOfLineX,
+			int clipMinX, int clipMaxX, int levelY, double rowRed,
+			double redStepX, double rowGreen, double greenStepX,
+			double rowBlue, double blueStepX, double rowDepth,
+			double depthStepX) {
+		int start = Math.max(startOfLineX, clipMinX);
+		int end = Math.min(endOfLineX, clipMaxX);
+		if (end <= start)
+			return;
+		int last = endOfLineX - 1;
+		int red = toFixedChannel(rowRed + startOfLineX * redStepX);
+		int green = toFixedChannel(rowGreen + startOfLineX * greenStepX);
+		int blue = toFixedChannel(rowBlue + startOfLineX * blueStepX);
+		int length = Math.max(1, last - startOfLineX);
+		int redStep = (toFixedChannel(rowRed + last * redStepX) - red) / length;
+		int greenStep = (toFixedChannel(rowGreen + last * greenStepX) - green)
+				/ length;
+		int blueStep = (toFixedChannel(rowBlue + last * blueStepX) - blue)
+				/ length;
+		red += (start - startOfLineX) * redStep;
+		green += (start - startOfLineX) * greenStep;
+		blue += (start - startOfLineX) * blueStep;
+
+		int rowStart = levelY * imageWidth;
+		end += rowStart;
+		if (!depthBufferEnabled) {
+			for (int i = rowStart + start; i < end; i++) {
+				pixels[i] = (red & 0xFF0000) | ((green >> 8) & 0xFF00)
+						| (blue >> 16);
+				red += redStep;
+				green += greenStep;
+				blue += blueStep;
+			}
+			return;
+		}
+
+		double depth = rowDepth + start * depthStepX;
+		for (int i = rowStart + start; i < end; i++) {
+			if (depth > depthBuffer[i]) {
+				depthBuffer[i] = (float) depth;
+				pixels[i] = (red & 0xFF0000) | ((green >> 8) & 0xFF00)
+						| (blue >> 16);
+			}
+			red += redStep;
+			green += greenStep;
+			blue += blueStep;
+			depth += depthStepX;
+		}
 	}
 
-	// Triangle2D class stores 2d triangle data before it is painted on the
-	// buffered image.
-	// implements comparable to optimize sorting.
-	private class Triangle2D {
-		// three screen coordinate points.
-		public final Point p1;
-		public final Point p2;
-		public final Point p3;
+	// rounds a color channel to 16.16 fixed point, clamped to 0 to 255.
+	private static int toFixedChannel(double channel) {
+		return (int) (Math.max(0, Math.min(255.99, channel + 0.5)) * 65536);
+	}
 
-		// the color
-		public final int color;
+	/**
+	 * runs a stage on the render pool, split into slices of about the same
+	 * number of items. The render thread works on the slices too, and returns
+	 * once all of them are done.
+	 * 
+	 * @param stage the stage
+	 * @param count the number of vertices, geometry chunks or tiles
+	 * @throws RuntimeException if a slice threw one, after all of the slices
+	 *                          are done
+	 * @throws Error            if a slice threw one
+	 */
+	private void runParallelStage(int stage, int count) {
+		int slices = Math.min(count, renderThreads * SLICES_PER_THREAD);
+		if (slices == 0)
+			return;
+		currentStage = stage;
+		stageItemCount = count;
+		stageSliceCount = slices;
+		stageWaiter = Thread.currentThread();
+		remainingSlices.set(slices);
+		nextSlice.set(0);
+
+		// only the helpers the pool accepted are waited for below. If it
+		// rejects one, the render thread does its slices.
+		int helpers = 0;
+		try {
+			while (helpers < Math.min(stageHelpers.length, slices - 1)) {
+				stageHelpers[helpers].reinitialize();
+				renderPool.execute(stageHelpers[helpers]);
+				helpers++;
+			}
+		} catch (RuntimeException e) {
+			stageFailure.compareAndSet(null, e);
+		}
+		runClaimedSlices();
+		while (remainingSlices.get() != 0)
+			LockSupport.park(this);
+		// helpers which found no slice left may not have run yet. They are
+		// waited for, so none of them claims a slice of the next stage. A
+		// helper never throws, so each one ends up done.
+		for (int i = 0; i < helpers; i++) {
+			while (!stageHelpers[i].isDone())
+				Thread.yield();
+		}
+
+		Throwable failure = stageFailure.getAndSet(null);
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure != null)
+			throw new IllegalStateException("render stage failed", failure);
+	}
 
-		// overloaded constructor.
-		public Triangle2D(Point p1In, Point p2In, Point p3In, int colorIn) {
-			p1 = p1In;
-			p2 = p2In;
-			p3 = p3In;
-			color = colorIn;
+	// claims and does slices of the current stage until none are left. Every
+	// claimed slice is counted as done, even if it throws, so the render
+	// thread is always woken. Once a slice has failed the rest are skipped.
+	private void runClaimedSlices() {
+		int slice;
+		while ((slice = nextSlice.getAndIncrement()) < stageSliceCount) {
+			int slices = stageSliceCount;
+			int count = stageItemCount;
+			try {
+				if (stageFailure.get() == null)
+					runStageSlice(currentStage,
+							(int) ((long) count * slice / slices),
+							(int) ((long) count * (slice + 1) / slices));
+			} catch (Throwable e) {
+				stageFailure.compareAndSet(null, e);
+			} finally {
+				if (remainingSlices.decrementAndGet() == 0)
+					LockSupport.unpark(stageWaiter);
+			}
+		}
+	}
+
+	// does a slice of the items of a stage. Slices never write to the same
+	// vertices, chunks or tiles, so they can run at the same time without any
+	// locking.
+	private void runStageSlice(int stage, int first, int end) {
+		if (stage == STAGE_PROJECT_VERTICES) {
+			projectVertices(stageMesh.getVertexPositions(), first, end);
+		} else if (stage == STAGE_CALCULATE_TRIANGLES) {
+			for (int i = first; i < end; i++)
+				calculateTriangles(stageMesh, i);
+		} else if (stage == STAGE_LIGHT_TRIANGLES) {
+			stageObject.lightTriangles(stageLevel, first * GEOMETRY_CHUNK_SIZE,
+					Math.min(stageLightCount, end * GEOMETRY_CHUNK_SIZE));
+		} else if (stage == STAGE_LIGHT_VERTICES) {
+			stageObject.lightVertices(stageLevel, first * GEOMETRY_CHUNK_SIZE,
+					Math.min(stageLightCount, end * GEOMETRY_CHUNK_SIZE));
+		} else {
+			for (int i = first; i < end; i++)
+				rasterizeTile(i);
+		}
+	}
+
+	// a task of the render pool which works on the slices of the current
+	// stage alongside the render thread.
+	private class StageHelper extends RecursiveAction {
+		private static final long serialVersionUID = 1;
+
+		@Override
+		protected void compute() {
+			runClaimedSlices();
+		}
+	}
+
+	// the output of the geometry stage for one chunk of triangles: the 2d
+	// triangles in the order they were calculated, stored like the triangles
+	// of the frame, and the depth key and source of each one. The arrays are
+	// reused every frame.
+	private class GeometryChunk {
+		private int triangleCount;
+		private int[] points = new int[6 * 64];
+		private float[] invDepths = new float[3 * 64];
+		private int[] colors = new int[64];
+		private int[] cornerColors = new int[3 * 64];
+		private Texture[] textures = new Texture[64];
+		private float[] textureCoords = new float[6 * 64];
+		private int[] textureShading = new int[4 * 64];
+		private int[] depthKeys = new int[64];
+		private int[] sources = new int[64];
+
+		// the polygon being clipped, nine values (x, y, w, the red, green and
+		// blue of the color, the texture coordinates u and v, and the
+		// brightness) per vertex in clip space, and a second array the clipped
+		// polygon is written to. Clipping a triangle against five planes gives
+		// at most 8 vertices.
+		private double[] clipPolygon = new double[CLIP_STRIDE * 8];
+		private double[] clipOutput = new double[CLIP_STRIDE * 8];
+
+		// the clipped polygon after the perspective divide.
+		private int[] clippedX = new int[8];
+		private int[] clippedY = new int[8];
+		private float[] clippedInvDepths = new float[8];
+		private int[] clippedColors = new int[8];
+		private float[] clippedU = new float[8];
+		private float[] clippedV = new float[8];
+		private int[] clippedBrightness = new int[8];
+
+		// adds a triangle whose corners are set afterwards with setCorner,
+		// and returns its index in the chunk.
+		private int add(int color, int depthKey, int source) {
+			if (triangleCount == colors.length) {
+				int length = colors.length * 2;
+				points = Arrays.copyOf(points, 6 * length);
+				invDepths = Arrays.copyOf(invDepths, 3 * length);
+				colors = Arrays.copyOf(colors, length);
+				cornerColors = Arrays.copyOf(cornerColors, 3 * length);
+				textures = Arrays.copyOf(textures, length);
+				textureCoords = Arrays.copyOf(textureCoords, 6 * length);
+				textureShading = Arrays.copyOf(textureShading, 4 * length);
+				depthKeys = Arrays.copyOf(depthKeys, length);
+				sources = Arrays.copyOf(sources, length);
+			}
+			colors[triangleCount] = color;
+			textures[triangleCount] = null;
+			depthKeys[triangleCount] = depthKey;
+			sources[triangleCount] = source;
+			return triangleCount++;
+		}
+
+		private void setCorner(int triangle, int corner, int x, int y,
+				float invDepth, int color) {
+			points[triangle * 6 + corner * 2] = x;
+			points[triangle * 6 + corner * 2 + 1] = y;
+			invDepths[triangle * 3 + corner] = invDepth;
+			cornerColors[triangle * 3 + corner] = color;
+		}
+
+		// makes a triangle textured, with the fog amount of the whole
+		// triangle.
+		private void setTexture(int triangle, Texture texture, int fogAmount) {
+			textures[triangle] = texture;
+			textureShading[triangle * 4 + 3] = fogAmount;
+		}
+
+		private void setTextureCorner(int triangle, int corner, float u,
+				float v, int brightness) {
+			textureCoords[triangle * 6 + corner * 2] = u;
+			textureCoords[triangle * 6 + corner * 2 + 1] = v;
+			textureShading[triangle * 4 + corner] = brightness;
+		}
+
+		// sets a vertex of the clip polygon to a mesh vertex transformed into
+		// clip space, with the color, texture coordinates and brightness of
+		// its corner.
+		private void setClipVertex(int i, double[] vertices, int index,
+				int color, float u, float v, int brightness) {
+			double[] m = objectMatrix;
+			double x = vertices[index * 3];
+			double y = vertices[index * 3 + 1];
+			double z = vertices[index * 3 + 2];
+			int offset = i * CLIP_STRIDE;
+			clipPolygon[offset] = m[0] * x + m[1] * y + m[2] * z + m[3];
+			clipPolygon[offset + 1] = m[4] * x + m[5] * y + m[6] * z + m[7];
+			clipPolygon[offset + 2] = m[8] * x + m[9] * y + m[10] * z + m[11];
+			clipPolygon[offset + 3] = (color >> 16) & 255;
+			clipPolygon[offset + 4] = (color >> 8) & 255;
+			clipPolygon[offset + 5] = color & 255;
+			clipPolygon[offset + 6] = u;
+			clipPolygon[offset + 7] = v;
+			clipPolygon[offset + 8] = brightness;
+		}
+
+		// clips the clip polygon against the plane a * x + b * y + c * w + d
+		// >= 0, keeping the part in front of it, and returns the new number of
+		// vertices.
+		private int clipPolygon(int count, double a, double b, double c,
+				double d) {
+			int outputCount = 0;
+			for (int i = 0; i < count; i++) {
+				int j = (i + 1 == count) ? 0 : i + 1;
+				int vi = i * CLIP_STRIDE;
+				int vj = j * CLIP_STRIDE;
+				int vo = outputCount * CLIP_STRIDE;
+				double distance1 = a * clipPolygon[vi] + b * clipPolygon[vi + 1]
+						+ c * clipPolygon[vi + 2] + d;
+				double distance2 = a * clipPolygon[vj] + b * clipPolygon[vj + 1]
+						+ c * clipPolygon[vj + 2] + d;
+				if (distance1 >= 0) {
+					System.arraycopy(clipPolygon, vi, clipOutput, vo,
+							CLIP_STRIDE);
+					vo += CLIP_STRIDE;
+					outputCount++;
+				}
+				// the edge crosses the plane, so a vertex is added where it
+				// crosses.
+				if ((distance1 >= 0) != (distance2 >= 0)) {
+					double t = distance1 / (distance1 - distance2);
+					for (int k = 0; k < CLIP_STRIDE; k++) {
+						clipOutput[vo + k] = clipPolygon[vi + k]
+								+ (clipPolygon[vj + k] - clipPolygon[vi + k])
+										* t;
+					}
+					outputCount++;
+				}
+			}
+			double[] swap = clipPolygon;
+			clipPolygon = clipOutput;
+			clipOutput = swap;
+			return outputCount;
+		}
+
+		private void clear() {
+			triangleCount = 0;
 		}
 	}
 }
@@ -779,6 +2407,10 @@ class TimingHelper {
 					/ 2;
 	}
 
+	public void setProcessName(String processNameIn) {
+		processName = processNameIn;
+	}
+
 	public double getDeltaTime() {
 		return mostRecentProcessTime / 1000000.0;
 	}
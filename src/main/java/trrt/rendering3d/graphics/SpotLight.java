@@ -0,0 +1,77 @@
+package trrt.rendering3d.graphics;
+
+import trrt.rendering3d.primitives.*;
+
+/**
+ * a point light which only shines inside a cone. Surfaces inside the inner angle of the cone get the full light, which then
+ * fades out towards the outer angle.
+ */
+public class SpotLight extends PointLight
+{
+    /**the normalized direction the cone points in. */
+    private Vector3 direction;
+
+    /**
+     * the cosines of the inner and outer angles of the cone, measured from its direction, so a direction can be tested
+     * against the cone with a dot product.
+     */
+    private double cosInnerAngle;
+    private double cosOuterAngle;
+
+    /**
+     * creates a spot light
+     * @param positionIn position of the light in world space
+     * @param directionIn direction the light points in, which will be normalized automatically
+     * @param rangeIn how far the light reaches
+     * @param intensityIn how bright surfaces right in front of the light become
+     * @param innerAngle the angle in degrees from the direction up to which the light is at full brightness
+     * @param outerAngle the angle in degrees from the direction past which there is no light
+     */
+    public SpotLight(Vector3 positionIn, Vector3 directionIn, double rangeIn, double intensityIn, double innerAngle,
+        double outerAngle)
+    {
+        super(positionIn, rangeIn, intensityIn);
+        direction = directionIn.getNormalized();
+        setAngles(innerAngle, outerAngle);
+    }
+
+    @Override
+    protected double getConeFactor(double toLightX, double toLightY, double toLightZ)
+    {
+        // the direction from the light to the surface is the opposite of the direction to the light.
+        double cosAngle = -(direction.x * toLightX + direction.y * toLightY + direction.z * toLightZ);
+        if (cosAngle <= cosOuterAngle)
+            return 0;
+        if (cosAngle >= cosInnerAngle)
+            return 1;
+        return (cosAngle - cosOuterAngle) / (cosInnerAngle - cosOuterAngle);
+    }
+
+    //#region getter/setter methods
+    public Vector3 getDirection()
+    {
+        return direction;
+    }
+
+    /**
+     * @param directionIn direction the light points in, which will be normalized automatically
+     */
+    public void setDirection(Vector3 directionIn)
+    {
+        direction = directionIn.getNormalized();
+        changed();
+    }
+
+    /**
+     * sets the angles of the cone. Only the cosines of the angles are kept.
+     * @param innerAngle the angle in degrees from the direction up to which the light is at full brightness
+     * @param outerAngle the angle in degrees from the direction past which there is no light
+     */
+    public void setAngles(double innerAngle, double outerAngle)
+    {
+        cosInnerAngle = Math.cos(Math.toRadians(Math.min(innerAngle, outerAngle)));
+        cosOuterAngle = Math.cos(Math.toRadians(outerAngle));
+        changed();
+    }
+    //#endregion
+}
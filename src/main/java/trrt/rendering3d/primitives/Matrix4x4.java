@@ -0,0 +1,102 @@
+package trrt.rendering3d.primitives;
+
+/**
+ * a 4x4 matrix for transforming points in homogeneous coordinates, where a
+ * point (x, y, z) is treated as the column (x, y, z, 1). Translations and
+ * perspective projections can be combined with rotations into a single matrix
+ * this way.
+ */
+public class Matrix4x4 {
+	public static final Matrix4x4 IDENTITY = new Matrix4x4(1, 0, 0, 0, 0, 1, 0,
+			0, 0, 0, 1, 0, 0, 0, 0, 1);
+
+	// R means row and C means column. R2C3 would be second row third column.
+	public final double R1C1, R1C2, R1C3, R1C4, R2C1, R2C2, R2C3, R2C4, R3C1,
+			R3C2, R3C3, R3C4, R4C1, R4C2, R4C3, R4C4;
+
+	// overloaded constructor which allows all 16 values of the matrix, row by
+	// row.
+	public Matrix4x4(double r1c1, double r1c2, double r1c3, double r1c4,
+			double r2c1, double r2c2, double r2c3, double r2c4, double r3c1,
+			double r3c2, double r3c3, double r3c4, double r4c1, double r4c2,
+			double r4c3, double r4c4) {
+		R1C1 = r1c1;
+		R1C2 = r1c2;
+		R1C3 = r1c3;
+		R1C4 = r1c4;
+		R2C1 = r2c1;
+		R2C2 = r2c2;
+		R2C3 = r2c3;
+		R2C4 = r2c4;
+		R3C1 = r3c1;
+		R3C2 = r3c2;
+		R3C3 = r3c3;
+		R3C4 = r3c4;
+		R4C1 = r4c1;
+		R4C2 = r4c2;
+		R4C3 = r4c3;
+		R4C4 = r4c4;
+	}
+
+	/**
+	 * creates a matrix which rotates by {@code rotation} and then translates by
+	 * {@code translation}.
+	 *
+	 * @param rotation    the 3x3 rotation (or any linear transformation)
+	 * @param translation the translation
+	 */
+	public Matrix4x4(Matrix3x3 rotation, Vector3 translation) {
+		this(rotation.R1C1, rotation.R1C2, rotation.R1C3, translation.x,
+				rotation.R2C1, rotation.R2C2, rotation.R2C3, translation.y,
+				rotation.R3C1, rotation.R3C2, rotation.R3C3, translation.z, 0,
+				0, 0, 1);
+	}
+
+	// formats the values in the matrix into a string.
+	@Override
+	public String toString() {
+		return String.format(
+				"\n|%10.2f%10.2f%10.2f%10.2f |\n|%10.2f%10.2f%10.2f%10.2f |\n|%10.2f%10.2f%10.2f%10.2f |\n|%10.2f%10.2f%10.2f%10.2f |\n",
+				R1C1, R1C2, R1C3, R1C4, R2C1, R2C2, R2C3, R2C4, R3C1, R3C2,
+				R3C3, R3C4, R4C1, R4C2, R4C3, R4C4);
+	}
+
+	/**
+	 *
+	 * @param m2
+	 * @return this.m2 so this matrix multiplied with m2. Applying the result
+	 *         to a point is the same as applying m2 first and then this matrix.
+	 */
+	public Matrix4x4 multiply(Matrix4x4 m2) {
+		return new Matrix4x4(
+				R1C1 * m2.R1C1 + R1C2 * m2.R2C1 + R1C3 * m2.R3C1 + R1C4 * m2.R4C1,
+				R1C1 * m2.R1C2 + R1C2 * m2.R2C2 + R1C3 * m2.R3C2 + R1C4 * m2.R4C2,
+				R1C1 * m2.R1C3 + R1C2 * m2.R2C3 + R1C3 * m2.R3C3 + R1C4 * m2.R4C3,
+				R1C1 * m2.R1C4 + R1C2 * m2.R2C4 + R1C3 * m2.R3C4 + R1C4 * m2.R4C4,
+				R2C1 * m2.R1C1 + R2C2 * m2.R2C1 + R2C3 * m2.R3C1 + R2C4 * m2.R4C1,
+				R2C1 * m2.R1C2 + R2C2 * m2.R2C2 + R2C3 * m2.R3C2 + R2C4 * m2.R4C2,
+				R2C1 * m2.R1C3 + R2C2 * m2.R2C3 + R2C3 * m2.R3C3 + R2C4 * m2.R4C3,
+				R2C1 * m2.R1C4 + R2C2 * m2.R2C4 + R2C3 * m2.R3C4 + R2C4 * m2.R4C4,
+				R3C1 * m2.R1C1 + R3C2 * m2.R2C1 + R3C3 * m2.R3C1 + R3C4 * m2.R4C1,
+				R3C1 * m2.R1C2 + R3C2 * m2.R2C2 + R3C3 * m2.R3C2 + R3C4 * m2.R4C2,
+				R3C1 * m2.R1C3 + R3C2 * m2.R2C3 + R3C3 * m2.R3C3 + R3C4 * m2.R4C3,
+				R3C1 * m2.R1C4 + R3C2 * m2.R2C4 + R3C3 * m2.R3C4 + R3C4 * m2.R4C4,
+				R4C1 * m2.R1C1 + R4C2 * m2.R2C1 + R4C3 * m2.R3C1 + R4C4 * m2.R4C1,
+				R4C1 * m2.R1C2 + R4C2 * m2.R2C2 + R4C3 * m2.R3C2 + R4C4 * m2.R4C2,
+				R4C1 * m2.R1C3 + R4C2 * m2.R2C3 + R4C3 * m2.R3C3 + R4C4 * m2.R4C3,
+				R4C1 * m2.R1C4 + R4C2 * m2.R2C4 + R4C3 * m2.R3C4 + R4C4 * m2.R4C4);
+	}
+
+	/**
+	 * @param point the point to transform
+	 * @return the point transformed by this matrix, after dividing by the w
+	 *         component (the perspective divide)
+	 */
+	public Vector3 transformPoint(Vector3 point) {
+		double w = R4C1 * point.x + R4C2 * point.y + R4C3 * point.z + R4C4;
+		return new Vector3(
+				(R1C1 * point.x + R1C2 * point.y + R1C3 * point.z + R1C4) / w,
+				(R2C1 * point.x + R2C2 * point.y + R2C3 * point.z + R2C4) / w,
+				(R3C1 * point.x + R3C2 * point.y + R3C3 * point.z + R3C4) / w);
+	}
+}
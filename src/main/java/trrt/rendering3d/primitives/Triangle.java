@@ -19,14 +19,14 @@ public class Triangle implements Serializable {
 	public final Vector2 textureCoord2;
 	public final Vector2 textureCoord3;
 
-	/** the default color of the triangle before lighting */
-	private final Color color;
+	/** the default packed rgb color of the triangle before lighting */
+	private final int color;
 
 	/** the mesh the this triangle is a part of (might be null) */
 	private Mesh parentMesh;
 
-	/** the color of the triangle with lighting calculations. */
-	private Color colorWithLighting;
+	/** the packed rgb color of the triangle with lighting calculations. */
+	private int colorWithLighting;
 
 	/**
 	 * creates a triangle object with specified vertices and parent mesh with
@@ -42,6 +42,15 @@ public class Triangle implements Serializable {
 	 */
 	public Triangle(Mesh parentMeshIn, Vector3 v1, Vector3 v2, Vector3 v3,
 			Color colorIn) {
+		this(parentMeshIn, v1, v2, v3, colorIn.getRGB() & 0xFFFFFF);
+	}
+
+	/**
+	 * creates a triangle object with specified vertices and parent mesh and
+	 * packed rgb color
+	 */
+	public Triangle(Mesh parentMeshIn, Vector3 v1, Vector3 v2, Vector3 v3,
+			int colorIn) {
 		vertex1 = v1;
 		vertex2 = v2;
 		vertex3 = v3;
@@ -69,6 +78,25 @@ public class Triangle implements Serializable {
 		colorWithLighting = color;
 	}
 
+	/**
+	 * creates a triangle object with specified parent mesh, vertices, texture
+	 * coordinates and packed rgb colors before and after lighting. Used by
+	 * meshes to hand out views of the triangles they store.
+	 */
+	public Triangle(Mesh parentMeshIn, Vector3 v1, Vector3 v2, Vector3 v3,
+			Vector2 t1, Vector2 t2, Vector2 t3, int colorIn,
+			int colorWithLightingIn) {
+		vertex1 = v1;
+		vertex2 = v2;
+		vertex3 = v3;
+		textureCoord1 = t1;
+		textureCoord2 = t2;
+		textureCoord3 = t3;
+		parentMesh = parentMeshIn;
+		color = colorIn;
+		colorWithLighting = colorWithLightingIn;
+	}
+
 	public Mesh getMesh() {
 		return parentMesh;
 	}
@@ -86,11 +114,17 @@ public class Triangle implements Serializable {
 				(vertex1.z + vertex2.z + vertex3.z) / 3);
 	}
 
-	public Color getBaseColor() {
+	/**
+	 * @return the packed rgb color of the triangle before lighting
+	 */
+	public int getBaseColor() {
 		return color;
 	}
 
-	public Color getColorWithLighting() {
+	/**
+	 * @return the packed rgb color of the triangle with lighting
+	 */
+	public int getColorWithLighting() {
 		return colorWithLighting;
 	}
 
@@ -111,46 +145,17 @@ public class Triangle implements Serializable {
 	 * @param lighting the lighting object responsible for lighting
 	 */
 	public void calculateLightingColor(Lighting lighting) {
-		int brightness = 0;
-		int darkness = 0;
-		// get the angle between the normal of the triangle face and the
-		// direction of the light.
-		double angle = Vector3.getAngleBetween(lighting.lightDirection,
-				Vector3.crossProduct(vertex1.subtract(vertex2),
-						vertex2.subtract(vertex3)));
-
-		// determine brightness and darkness.
-		if (angle > Math.PI / 2)
-			brightness = (int) (Math.abs(angle / (Math.PI) - 0.5)
-					* (lighting.lightIntensity / 100) * 255);
-
-		if (angle < Math.PI / 2)
-			darkness = (int) (Math.abs(angle / (Math.PI) - 0.5)
-					* (lighting.shadowIntensity / 100) * 255);
-
-		int red = color.getRed() + brightness - darkness;
-		int green = color.getGreen() + brightness - darkness;
-		int blue = color.getBlue() + brightness - darkness;
-
-		// clamp values
-		red = Math.max(0, Math.min(red, 255));
-		green = Math.max(0, Math.min(green, 255));
-		blue = Math.max(0, Math.min(blue, 255));
-
-		colorWithLighting = new Color(red, green, blue);
+		Vector3 normal = Vector3.crossProduct(vertex1.subtract(vertex2),
+				vertex2.subtract(vertex3));
+		colorWithLighting = lighting.calculateLitColor(color, normal.x,
+				normal.y, normal.z);
 	}
 
-	private Color calculateTextureColor() {
+	private int calculateTextureColor() {
 		double centerX = (textureCoord1.x + textureCoord2.x + textureCoord3.x)
 				/ 3;
 		double centerY = (textureCoord1.y + textureCoord2.y + textureCoord3.y)
 				/ 3;
-		int[] color = new int[4];
-		color = parentMesh.getTextureRaster().getPixel(
-				(int) (centerX * parentMesh.getTextureRaster().getWidth()),
-				parentMesh.getTextureRaster().getHeight() - (int) (centerY
-						* parentMesh.getTextureRaster().getHeight()),
-				color);
-		return new Color(color[0], color[1], color[2]);
+		return parentMesh.getTexture().getColor(centerX, centerY);
 	}
 }
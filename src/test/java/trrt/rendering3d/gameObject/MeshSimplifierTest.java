@@ -0,0 +1,107 @@
+package trrt.rendering3d.gameObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+
+import org.junit.Test;
+
+import trrt.rendering3d.primitives.Quaternion;
+
+/**
+ * checks that the simplifier reduces meshes to the number of triangles asked
+ * for, and that the levels of detail of a mesh get coarser and less accurate
+ * one after another.
+ */
+public class MeshSimplifierTest {
+	// the number of squares along each side of the flat grid.
+	private static final int GRID_SIZE = 8;
+
+	@Test
+	public void flatGridSimplifiesToTwoTrianglesWithoutError() {
+		// a square of GRID_SIZE by GRID_SIZE squares, two triangles each.
+		int side = GRID_SIZE + 1;
+		double[] vertices = new double[side * side * 3];
+		for (int i = 0; i < side * side; i++) {
+			vertices[i * 3] = i % side;
+			vertices[i * 3 + 1] = i / side;
+		}
+		int triangleCount = GRID_SIZE * GRID_SIZE * 2;
+		int[] triangles = new int[triangleCount * 3];
+		for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++) {
+			int corner = i / GRID_SIZE * side + i % GRID_SIZE;
+			int[] square = { corner, corner + 1, corner + side + 1, corner,
+					corner + side + 1, corner + side };
+			System.arraycopy(square, 0, triangles, i * 6, 6);
+		}
+
+		MeshSimplifier simplifier = new MeshSimplifier(vertices,
+				side * side, triangles, triangleCount);
+		assertTrue(simplifier.simplify(triangleCount / 2));
+		assertTrue(simplifier.getTriangleCount() <= triangleCount / 2);
+		assertTrue(simplifier.simplify(2));
+		assertEquals(2, simplifier.getTriangleCount());
+		assertEquals(0, simplifier.getError(), 1e-6);
+
+		// the two triangles left still cover the whole square.
+		int[] indices = simplifier.getTriangleIndices();
+		double[] positions = simplifier.getVertices();
+		assertEquals(6, indices.length);
+		double area = 0;
+		for (int i = 0; i < 2; i++) {
+			double x1 = positions[indices[i * 3] * 3];
+			double y1 = positions[indices[i * 3] * 3 + 1];
+			area += Math.abs((positions[indices[i * 3 + 1] * 3] - x1)
+					* (positions[indices[i * 3 + 2] * 3 + 1] - y1)
+					- (positions[indices[i * 3 + 2] * 3] - x1)
+							* (positions[indices[i * 3 + 1] * 3 + 1] - y1))
+					/ 2;
+		}
+		assertEquals(GRID_SIZE * GRID_SIZE, area, 1e-6);
+	}
+
+	@Test
+	public void simplifiedMeshKeepsValidTriangles() {
+		Mesh mesh = loadSuzanne();
+		MeshSimplifier simplifier = new MeshSimplifier(
+				mesh.getVertexPositions(), mesh.getVertexCount(),
+				mesh.getTriangleIndices(), mesh.getTriangleCount());
+		int target = mesh.getTriangleCount() / 4;
+		assertTrue(simplifier.simplify(target));
+		int triangleCount = simplifier.getTriangleCount();
+		assertTrue(triangleCount <= target && triangleCount > 0);
+
+		int[] indices = simplifier.getTriangleIndices();
+		int vertexCount = simplifier.getVertices().length / 3;
+		assertEquals(triangleCount * 3, indices.length);
+		assertTrue(vertexCount < mesh.getVertexCount());
+		for (int i = 0; i < indices.length; i += 3) {
+			assertTrue(indices[i] >= 0 && indices[i] < vertexCount);
+			assertTrue(indices[i] != indices[i + 1]
+					&& indices[i + 1] != indices[i + 2]
+					&& indices[i + 2] != indices[i]);
+		}
+	}
+
+	@Test
+	public void errorGrowsWithEachLevelOfDetail() {
+		Mesh mesh = loadSuzanne();
+		mesh.generateLevelsOfDetail(4);
+		assertEquals(5, mesh.getLevelOfDetailCount());
+		for (int level = 1; level < mesh.getLevelOfDetailCount(); level++) {
+			Mesh previous = mesh.getLevelOfDetail(level - 1);
+			Mesh current = mesh.getLevelOfDetail(level);
+			assertTrue("level " + level, current
+					.getTriangleCount() <= previous.getTriangleCount() / 2);
+			assertTrue("level " + level, mesh.getLevelOfDetailError(
+					level) > mesh.getLevelOfDetailError(level - 1));
+		}
+	}
+
+	private static Mesh loadSuzanne() {
+		return new Mesh(new File("res/suzanne.obj"), Color.GRAY, null,
+				Quaternion.IDENTITY, 1, true);
+	}
+}
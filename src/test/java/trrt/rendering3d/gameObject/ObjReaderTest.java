@@ -0,0 +1,140 @@
+package trrt.rendering3d.gameObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import trrt.rendering3d.primitives.Quaternion;
+import trrt.rendering3d.primitives.Vector3;
+
+/**
+ * checks that the .obj reader parses numbers exactly like
+ * {@link Double#parseDouble(String)}, and that meshes resolve the indices of
+ * their faces.
+ */
+public class ObjReaderTest {
+	// numbers on both sides of the limits of the fast path: the number of
+	// digits in a long, the exact powers of ten and 2^53.
+	private static final String[] NUMBERS = { "0", "-0", "-0.0", ".5", "-.5",
+			"+2.5", "1e-5", "1E5", "1e+5", "1e22", "1e23", "1e-22", "1e-23",
+			"-1e22", "-1e-23", "123456789012345678", "1234567890123456789",
+			"123456789012345678901234", "3.14159265358979323846",
+			"0.000000000000000000000000001", "0.10000000000000000000000",
+			"1.00000000000000000000001", "0.0000000000000000000000000000005",
+			"9007199254740991", "9007199254740992", "9007199254740993",
+			"4.9e-324", "1.7976931348623157e308", "1e400", "1e-400",
+			"2.2250738585072014e-308", "0.1", "0.3", "-123.456" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readDoubleMatchesParseDouble() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (String number : NUMBERS) {
+			content.append("v ").append(number).append('\n');
+		}
+		File file = write("numbers.obj", content.toString());
+
+		try (ObjReader reader = new ObjReader(file)) {
+			for (String number : NUMBERS) {
+				assertTrue(reader.nextLine());
+				assertTrue(reader.readKeyword("v"));
+				assertEquals(number,
+						Double.doubleToLongBits(Double.parseDouble(number)),
+						Double.doubleToLongBits(reader.readDouble()));
+			}
+		}
+	}
+
+	@Test
+	public void readDoubleStopsAtTheEndOfTheToken() throws IOException {
+		File file = write("tokens.obj", "v 1.5 -2e3\t.25# comment\r\n");
+		try (ObjReader reader = new ObjReader(file)) {
+			assertTrue(reader.nextLine());
+			assertTrue(reader.readKeyword("v"));
+			assertEquals(1.5, reader.readDouble(), 0);
+			assertEquals(-2000, reader.readDouble(), 0);
+			assertEquals(0.25, reader.readDouble(), 0);
+			assertTrue(!reader.hasToken());
+		}
+	}
+
+	@Test
+	public void readIntSaturatesInsteadOfWrapping() throws IOException {
+		File file = write("integers.obj",
+				"f 123 2147483647 2147483648 4294967297 -4294967297\n");
+		try (ObjReader reader = new ObjReader(file)) {
+			assertTrue(reader.nextLine());
+			assertTrue(reader.readKeyword("f"));
+			int[] expected = { 123, Integer.MAX_VALUE, Integer.MAX_VALUE,
+					Integer.MAX_VALUE, -Integer.MAX_VALUE };
+			for (int value : expected) {
+				assertTrue(reader.hasToken());
+				assertEquals(value, reader.readInt());
+			}
+		}
+	}
+
+	@Test
+	public void negativeFaceIndicesCountBackFromTheLastVertex()
+			throws IOException {
+		// the second face is read after a fourth vertex, so -1 refers to a
+		// different vertex in each face.
+		File file = write("relative.obj", "v 1 0 0\nv 2 0 0\nv 3 0 0\n"
+				+ "vn 0 0 1\nf -3//-1 -2//-1 -1//-1\nv 4 0 0\n"
+				+ "f -1//1 -2//-1 1//1\n");
+		Mesh mesh = load(file);
+		assertEquals(2, mesh.getTriangleCount());
+		// the x coordinate of each vertex is its number in the file.
+		double[] expected = { 1, 2, 3, 4, 3, 1 };
+		double[] positions = mesh.getVertexPositions();
+		int[] corners = mesh.getTriangleIndices();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], positions[corners[i] * 3], 0);
+		}
+	}
+
+	@Test
+	public void overflowingFaceIndexLeavesTheMeshEmpty() throws IOException {
+		// 4294967297 would wrap around to 1 in an int.
+		File file = write("overflow.obj", "v 0 0 0\nv 1 0 0\nv 0 1 0\n"
+				+ "f 4294967297 2 3\n");
+		assertEquals(0, load(file).getTriangleCount());
+	}
+
+	@Test
+	public void invalidFaceIndexLeavesTheMeshEmpty() throws IOException {
+		File file = write("invalid.obj", "v 0 0 0\nv 1 0 0\nv 0 1 0\n"
+				+ "f 1 2 3\nf 1 2 4\n");
+		Mesh mesh = load(file);
+		assertEquals(0, mesh.getTriangleCount());
+		assertEquals(0, mesh.getVertexCount());
+	}
+
+	@Test
+	public void zeroFaceIndexLeavesTheMeshEmpty() throws IOException {
+		File file = write("zero.obj", "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 0 1 2\n");
+		assertEquals(0, load(file).getTriangleCount());
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	private static Mesh load(File file) {
+		return new Mesh(file, Color.WHITE, Vector3.ZERO, Quaternion.IDENTITY, 1,
+				false);
+	}
+}
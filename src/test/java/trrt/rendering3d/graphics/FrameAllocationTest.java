@@ -0,0 +1,231 @@
+package trrt.rendering3d.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.junit.After;
+import org.junit.Test;
+
+import trrt.rendering3d.gameObject.GameObject;
+import trrt.rendering3d.gameObject.Mesh;
+import trrt.rendering3d.primitives.Quaternion;
+import trrt.rendering3d.primitives.Vector3;
+
+/**
+ * checks that rendering a frame doesn't allocate once the renderer is warmed
+ * up, by measuring the bytes the rendering thread and the workers of the
+ * render pool allocate around computeTriangles, sortTriangles and
+ * rasterizeTriangles. The camera moves every frame, and jumps every few
+ * frames so the triangles are sorted from scratch.
+ */
+public class FrameAllocationTest {
+	private static final int FRAMES = 40;
+
+	// methods compiled in the background can allocate once on the threads
+	// which run them next, so the camera path is rendered up to MAX_PASSES
+	// times after warming up, and the pass which allocated the least counts.
+	// Allocation by the renderer itself shows up in every pass.
+	private static final int MAX_PASSES = 4;
+
+	// more objects than the hierarchy sorts with an insertion sort, all in
+	// view. Every TEXTURED_INTERVAL-th one is a textured car.
+	private static final int OBJECT_COUNT = 100;
+	private static final int TEXTURED_INTERVAL = 10;
+
+	// every JUMP_INTERVAL-th frame the camera turns too far for last frame's
+	// order to be repaired.
+	private static final int JUMP_INTERVAL = 10;
+
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	// the ways of drawing a frame which take different paths through the
+	// rasterizer.
+	private enum Mode {
+		PAINTER, DEPTH_BUFFER, SMOOTH, TEXTURED
+	}
+
+	private RenderingPanel panel;
+
+	@After
+	public void tearDown() {
+		// shuts the render pool down.
+		if (panel != null)
+			panel.setRenderThreads(1);
+	}
+
+	@Test
+	public void singleThreadedPainterFrameAllocatesNothing() throws Exception {
+		assertEquals(0, measureFrameAllocation(1, Mode.PAINTER));
+	}
+
+	@Test
+	public void singleThreadedDepthBufferFrameAllocatesNothing()
+			throws Exception {
+		assertEquals(0, measureFrameAllocation(1, Mode.DEPTH_BUFFER));
+	}
+
+	@Test
+	public void singleThreadedSmoothFrameAllocatesNothing() throws Exception {
+		assertEquals(0, measureFrameAllocation(1, Mode.SMOOTH));
+	}
+
+	@Test
+	public void singleThreadedTexturedFrameAllocatesNothing()
+			throws Exception {
+		assertEquals(0, measureFrameAllocation(1, Mode.TEXTURED));
+	}
+
+	@Test
+	public void renderPoolPainterFrameAllocatesNothing() throws Exception {
+		assertEquals(0, measureFrameAllocation(4, Mode.PAINTER));
+	}
+
+	@Test
+	public void renderPoolDepthBufferFrameAllocatesNothing() throws Exception {
+		assertEquals(0, measureFrameAllocation(4, Mode.DEPTH_BUFFER));
+	}
+
+	@Test
+	public void renderPoolSmoothFrameAllocatesNothing() throws Exception {
+		assertEquals(0, measureFrameAllocation(4, Mode.SMOOTH));
+	}
+
+	@Test
+	public void renderPoolTexturedFrameAllocatesNothing() throws Exception {
+		assertEquals(0, measureFrameAllocation(4, Mode.TEXTURED));
+	}
+
+	// renders the camera path once to warm up, and returns the fewest bytes
+	// allocated while rendering it again.
+	private long measureFrameAllocation(int threads, Mode mode)
+			throws Exception {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean;
+		allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+		panel = createScene(threads, mode);
+		Camera camera = new Camera(Vector3.ZERO, 3000, 1, 60);
+		panel.setCamera(camera);
+
+		// the camera path is created up front, since moving the camera
+		// creates vectors.
+		Vector3[] positions = new Vector3[FRAMES];
+		Vector3[] targets = new Vector3[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			positions[i] = new Vector3(Math.sin(i * 0.05) * 3,
+					Math.cos(i * 0.07) * 2, -60 + i * 0.1);
+			double side = (i % JUMP_INTERVAL == 0) ? 30 : Math.sin(i * 0.1);
+			targets[i] = new Vector3(side, 0, 0);
+		}
+
+		renderPath(allocationBean, camera, positions, targets, new long[0]);
+		long[] workers = workerIds(panel);
+		long allocated = Long.MAX_VALUE;
+		for (int pass = 0; pass < MAX_PASSES && allocated != 0; pass++) {
+			allocated = Math.min(allocated, renderPath(allocationBean, camera,
+					positions, targets, workers));
+		}
+		return allocated;
+	}
+
+	// renders a frame from every point of the camera path, and returns the
+	// bytes allocated by the rendering thread and the workers while doing so.
+	// The rendering thread is measured on its own, so reading the workers is
+	// not counted.
+	private long renderPath(com.sun.management.ThreadMXBean allocationBean,
+			Camera camera, Vector3[] positions, Vector3[] targets,
+			long[] workers) throws Exception {
+		Method computeTriangles = frameMethod("computeTriangles");
+		Method sortTriangles = frameMethod("sortTriangles");
+		Method rasterizeTriangles = frameMethod("rasterizeTriangles");
+		long thread = Thread.currentThread().getId();
+		long allocated = 0;
+		for (int i = 0; i < FRAMES; i++) {
+			camera.setPosition(positions[i]);
+			camera.lookAt(targets[i]);
+			long[] workersBefore = allocationBean
+					.getThreadAllocatedBytes(workers);
+			long before = allocationBean.getThreadAllocatedBytes(thread);
+			computeTriangles.invoke(panel, NO_ARGUMENTS);
+			sortTriangles.invoke(panel, NO_ARGUMENTS);
+			rasterizeTriangles.invoke(panel, NO_ARGUMENTS);
+			allocated += allocationBean.getThreadAllocatedBytes(thread)
+					- before;
+			long[] workersAfter = allocationBean
+					.getThreadAllocatedBytes(workers);
+			for (int j = 0; j < workers.length; j++) {
+				if (workersBefore[j] != -1 && workersAfter[j] != -1)
+					allocated += workersAfter[j] - workersBefore[j];
+			}
+		}
+		return allocated;
+	}
+
+	// creates a panel with a grid of objects, drawn in a mode.
+	private static RenderingPanel createScene(int threads, Mode mode) {
+		RenderingPanel panel = new RenderingPanel(320, 240, Color.BLACK);
+		panel.setSize(320, 240);
+		panel.setRenderThreads(threads);
+		panel.setLighting(new Lighting(new Vector3(0.3, -1, 0.5), 70, 60));
+		panel.setFog(500, 1500, Color.GRAY);
+		if (mode == Mode.DEPTH_BUFFER)
+			panel.enableDepthBuffer();
+		if (mode == Mode.SMOOTH)
+			panel.enableSmoothShading();
+		if (mode != Mode.TEXTURED)
+			panel.dissableTextures();
+
+		Mesh plane = new Mesh(new File("res/lowPolyPlane1.obj"), Color.GRAY,
+				null, Quaternion.IDENTITY, 1, true);
+		Mesh car = new Mesh(new File("res/car.obj"),
+				new File("res/carTexture.png"), null, Quaternion.IDENTITY, 1,
+				true);
+		for (int i = 0; i < OBJECT_COUNT; i++) {
+			panel.addGameObject(new GameObject("object " + i,
+					(i % TEXTURED_INTERVAL == 0) ? car : plane,
+					new Vector3((i % 10) * 4 - 18, (i / 10) * 4 - 18, 0)));
+		}
+		return panel;
+	}
+
+	// the ids of the live workers of the render pool of a panel. The threads
+	// are enumerated rather than taken from Thread.getAllStackTraces(), since
+	// walking the stacks of the workers can make them allocate afterwards.
+	private static long[] workerIds(RenderingPanel panel) throws Exception {
+		Field renderPool = RenderingPanel.class.getDeclaredField("renderPool");
+		renderPool.setAccessible(true);
+		Object pool = renderPool.get(panel);
+		Thread[] threads = new Thread[Thread.activeCount() * 2];
+		int threadCount = Thread.enumerate(threads);
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < threadCount; i++) {
+			Thread thread = threads[i];
+			if (thread instanceof ForkJoinWorkerThread
+					&& ((ForkJoinWorkerThread) thread).getPool() == pool)
+				ids.add(thread.getId());
+		}
+		long[] workers = new long[ids.size()];
+		for (int i = 0; i < workers.length; i++)
+			workers[i] = ids.get(i);
+		return workers;
+	}
+
+	private static Method frameMethod(String name) throws Exception {
+		Method method = RenderingPanel.class.getDeclaredMethod(name);
+		method.setAccessible(true);
+		return method;
+	}
+}
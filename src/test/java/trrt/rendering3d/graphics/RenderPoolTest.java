@@ -0,0 +1,99 @@
+package trrt.rendering3d.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.junit.After;
+import org.junit.Test;
+
+import trrt.rendering3d.gameObject.GameObject;
+import trrt.rendering3d.gameObject.Mesh;
+import trrt.rendering3d.primitives.Quaternion;
+import trrt.rendering3d.primitives.Vector3;
+
+/**
+ * checks that an exception in a slice run by a worker of the render pool
+ * reaches the render thread instead of leaving it parked, and that the pool
+ * still works after.
+ */
+public class RenderPoolTest {
+	private RenderingPanel panel;
+
+	@After
+	public void tearDown() {
+		// shuts the render pool down.
+		if (panel != null)
+			panel.setRenderThreads(1);
+	}
+
+	@Test(timeout = 10000)
+	public void workerFailureIsRethrownOnTheRenderThread() throws Exception {
+		panel = new RenderingPanel(320, 240, Color.BLACK);
+		panel.setSize(320, 240);
+		panel.setRenderThreads(4);
+		panel.setCamera(new Camera(new Vector3(0, 0, -6), 3000, 1, 60));
+		panel.setLighting(new Lighting(new Vector3(0.3, -1, 0.5), 70, 60));
+		// enough triangles to light them in several slices.
+		Mesh mesh = new Mesh(new File("res/suzanne.obj"), Color.GRAY, null,
+				Quaternion.IDENTITY, 1, true);
+		WorkerFailingObject failing = new WorkerFailingObject(mesh);
+		panel.addGameObject(failing);
+
+		try {
+			renderFrame(panel);
+			fail("the frame should have thrown");
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+			assertEquals("worker failure", e.getCause().getMessage());
+		}
+
+		// the failure is cleared, so the next frames render normally.
+		failing.failing = false;
+		renderFrame(panel);
+		renderFrame(panel);
+	}
+
+	private static void renderFrame(RenderingPanel panel) throws Exception {
+		for (String name : new String[] { "computeTriangles", "sortTriangles",
+				"rasterizeTriangles" }) {
+			Method method = RenderingPanel.class.getDeclaredMethod(name);
+			method.setAccessible(true);
+			method.invoke(panel);
+		}
+	}
+
+	// a game object whose lighting fails on the workers of the render pool.
+	// On the render thread it is slow instead, so the workers are sure to
+	// claim some of the slices.
+	private static class WorkerFailingObject extends GameObject {
+		private static final long serialVersionUID = 1;
+
+		private volatile boolean failing = true;
+
+		WorkerFailingObject(Mesh mesh) {
+			super("failing", mesh, Vector3.ZERO);
+		}
+
+		@Override
+		public void lightTriangles(int level, int firstTriangle,
+				int endTriangle) {
+			if (failing) {
+				if (Thread.currentThread() instanceof ForkJoinWorkerThread)
+					throw new IllegalStateException("worker failure");
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			super.lightTriangles(level, firstTriangle, endTriangle);
+		}
+	}
+}
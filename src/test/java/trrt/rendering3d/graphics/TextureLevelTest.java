@@ -0,0 +1,62 @@
+package trrt.rendering3d.graphics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import trrt.rendering3d.gameObject.Texture;
+
+/**
+ * checks which mipmap level the rasterizer samples for triangles drawn smaller
+ * and larger than their texture.
+ */
+public class TextureLevelTest {
+	private static final int SIZE = 256;
+
+	// a triangle covering half of the texture, and the same triangle mirrored,
+	// which has a negative area.
+	private static final float[] COORDS = { 0, 0, 1, 0, 0, 1 };
+	private static final float[] MIRRORED_COORDS = { 0, 0, 0, 1, 1, 0 };
+
+	private final Texture texture = new Texture(
+			new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB));
+
+	@Test
+	public void minifiedTriangleSelectsASmallerLevel() throws Exception {
+		// 4 by 4 texels per pixel is two levels down.
+		assertEquals(2, selectLevel(COORDS, screenArea(SIZE / 4)));
+		assertEquals(2, selectLevel(MIRRORED_COORDS, screenArea(SIZE / 4)));
+	}
+
+	@Test
+	public void tinyTriangleSelectsTheSmallestLevel() throws Exception {
+		assertEquals(texture.getLevelCount() - 1,
+				selectLevel(COORDS, screenArea(1)));
+	}
+
+	@Test
+	public void magnifiedTriangleSelectsTheFullSizeTexture() throws Exception {
+		assertEquals(0, selectLevel(COORDS, screenArea(SIZE)));
+		assertEquals(0, selectLevel(COORDS, screenArea(SIZE * 4)));
+		assertEquals(0, selectLevel(MIRRORED_COORDS, screenArea(SIZE * 4)));
+	}
+
+	// twice the area on the screen of a triangle covering half of a square,
+	// as the rasterizer passes it.
+	private static double screenArea(int side) {
+		return (double) side * side;
+	}
+
+	private int selectLevel(float[] coords, double screenArea)
+			throws Exception {
+		Method selectTextureLevel = RenderingPanel.class.getDeclaredMethod(
+				"selectTextureLevel", Texture.class, float[].class, int.class,
+				double.class);
+		selectTextureLevel.setAccessible(true);
+		return (Integer) selectTextureLevel.invoke(null, texture, coords, 0,
+				screenArea);
+	}
+}
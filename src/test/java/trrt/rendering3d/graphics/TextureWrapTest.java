@@ -0,0 +1,101 @@
+package trrt.rendering3d.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import trrt.rendering3d.gameObject.GameObject;
+import trrt.rendering3d.gameObject.Mesh;
+import trrt.rendering3d.gameObject.Texture;
+import trrt.rendering3d.primitives.Quaternion;
+import trrt.rendering3d.primitives.Vector3;
+
+/**
+ * checks that texture coordinates outside 0 to 1 wrap around the texture, so
+ * shifting every coordinate of a triangle by a whole number doesn't change
+ * how it is drawn, including coordinates below 0.
+ */
+public class TextureWrapTest {
+	private static final File TEXTURE = new File("res/carTexture.png");
+
+	// a color which isn't in the texture.
+	private static final Color BACKGROUND = Color.MAGENTA;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void negativeCoordinatesWrapInGetColor() throws IOException {
+		Texture texture = loadQuad("color.obj", 0).getTexture();
+		int width = texture.getWidth(0);
+		int height = texture.getHeight(0);
+		// the centers of the pixels along a diagonal, and the same points
+		// shifted below 0.
+		for (int i = 0; i < Math.max(width, height); i++) {
+			double u = (i % width + 0.5) / width;
+			double v = (i % height + 0.5) / height;
+			assertEquals("pixel " + i, texture.getColor(u, v),
+					texture.getColor(u - 1, v - 2));
+		}
+	}
+
+	@Test
+	public void negativeCoordinatesDrawLikePositiveOnes() throws Exception {
+		int[] positive = render(loadQuad("positive.obj", 0));
+		int[] negative = render(loadQuad("negative.obj", -1));
+		int[] far = render(loadQuad("far.obj", -3));
+		assertArrayEquals(positive, negative);
+		assertArrayEquals(positive, far);
+	}
+
+	// renders a frame of a mesh filling most of the view, and returns its
+	// pixels.
+	private static int[] render(Mesh mesh) throws Exception {
+		RenderingPanel panel = new RenderingPanel(160, 120, BACKGROUND);
+		panel.setSize(160, 120);
+		panel.setCamera(new Camera(new Vector3(0, 0, -2), 3000, 0.1, 60));
+		panel.addGameObject(new GameObject("quad", mesh, Vector3.ZERO));
+		for (String name : new String[] { "computeTriangles", "sortTriangles",
+				"rasterizeTriangles" }) {
+			Method method = RenderingPanel.class.getDeclaredMethod(name);
+			method.setAccessible(true);
+			method.invoke(panel);
+		}
+		Field pixels = RenderingPanel.class.getDeclaredField("pixels");
+		pixels.setAccessible(true);
+		int[] frame = ((int[]) pixels.get(panel)).clone();
+		// a frame which draws nothing would match trivially.
+		int drawn = 0;
+		for (int pixel : frame) {
+			if ((pixel & 0xFFFFFF) != (BACKGROUND.getRGB() & 0xFFFFFF))
+				drawn++;
+		}
+		assertTrue(drawn > frame.length / 2);
+		return frame;
+	}
+
+	// loads a square facing the camera, whose texture coordinates run from
+	// offset to offset + 1.
+	private Mesh loadQuad(String name, int offset) throws IOException {
+		int end = offset + 1;
+		String content = "v -1 -1 0\nv 1 -1 0\nv 1 1 0\nv -1 1 0\n"
+				+ "vt " + offset + " " + offset + "\nvt " + end + " " + offset
+				+ "\nvt " + end + " " + end + "\nvt " + offset + " " + end
+				+ "\nf 1/1 3/3 2/2\nf 1/1 4/4 3/3\n";
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+		return new Mesh(file, TEXTURE, null, Quaternion.IDENTITY, 1, false);
+	}
+}
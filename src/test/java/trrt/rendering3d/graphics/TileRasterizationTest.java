@@ -0,0 +1,147 @@
+package trrt.rendering3d.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import trrt.rendering3d.gameObject.GameObject;
+import trrt.rendering3d.gameObject.Mesh;
+import trrt.rendering3d.primitives.Quaternion;
+import trrt.rendering3d.primitives.Vector3;
+
+/**
+ * checks that the parallel renderer, which rasterizes the image in tiles,
+ * draws every frame pixel for pixel like the single threaded renderer. Each
+ * mode clips the spans of the triangles to the tiles in its own way.
+ */
+public class TileRasterizationTest {
+	private static final int FRAMES = 8;
+
+	// the ways of drawing a frame which take different paths through the
+	// rasterizer.
+	private enum Mode {
+		PAINTER, DEPTH_BUFFER, SMOOTH, TEXTURED, TEXTURED_DEPTH_BUFFER
+	}
+
+	@Test
+	public void painterFramesMatch() throws Exception {
+		assertFramesMatch(Mode.PAINTER);
+	}
+
+	@Test
+	public void depthBufferFramesMatch() throws Exception {
+		assertFramesMatch(Mode.DEPTH_BUFFER);
+	}
+
+	@Test
+	public void smoothFramesMatch() throws Exception {
+		assertFramesMatch(Mode.SMOOTH);
+	}
+
+	@Test
+	public void texturedFramesMatch() throws Exception {
+		assertFramesMatch(Mode.TEXTURED);
+	}
+
+	@Test
+	public void texturedDepthBufferFramesMatch() throws Exception {
+		assertFramesMatch(Mode.TEXTURED_DEPTH_BUFFER);
+	}
+
+	// renders the same frames with one thread and with four, and compares
+	// their pixels.
+	private static void assertFramesMatch(Mode mode) throws Exception {
+		int[][] single = renderFrames(1, mode);
+		int[][] parallel = renderFrames(4, mode);
+		for (int i = 0; i < FRAMES; i++) {
+			assertArrayEquals("frame " + i, single[i], parallel[i]);
+		}
+	}
+
+	// renders a scene from a moving camera, and returns the pixels of every
+	// frame.
+	private static int[][] renderFrames(int threads, Mode mode)
+			throws Exception {
+		RenderingPanel panel = createScene(threads, mode);
+		try {
+			Camera camera = new Camera(Vector3.ZERO, 3000, 0.1, 60);
+			panel.setCamera(camera);
+			Method computeTriangles = frameMethod("computeTriangles");
+			Method sortTriangles = frameMethod("sortTriangles");
+			Method rasterizeTriangles = frameMethod("rasterizeTriangles");
+			Field pixels = RenderingPanel.class.getDeclaredField("pixels");
+			pixels.setAccessible(true);
+
+			int[][] frames = new int[FRAMES][];
+			for (int i = 0; i < FRAMES; i++) {
+				camera.setPosition(new Vector3(Math.sin(i * 0.4) * 3, 1.5,
+						-9 + i * 0.5));
+				camera.lookAt(new Vector3(i * 0.2, 0, 0));
+				computeTriangles.invoke(panel);
+				sortTriangles.invoke(panel);
+				rasterizeTriangles.invoke(panel);
+				frames[i] = ((int[]) pixels.get(panel)).clone();
+			}
+			// a frame which draws nothing would match trivially.
+			assertTrue(countDrawnPixels(frames[0]) > frames[0].length / 4);
+			return frames;
+		} finally {
+			// shuts the render pool down.
+			panel.setRenderThreads(1);
+		}
+	}
+
+	// creates a panel with a few overlapping objects, large enough on screen
+	// to cross many tiles, drawn in a mode.
+	private static RenderingPanel createScene(int threads, Mode mode) {
+		// not a multiple of the tile size, so the last tiles are cut off.
+		RenderingPanel panel = new RenderingPanel(333, 251, Color.BLACK);
+		panel.setSize(333, 251);
+		panel.setRenderThreads(threads);
+		panel.setLighting(new Lighting(new Vector3(0.3, -1, 0.5), 70, 60));
+		panel.addLight(new PointLight(new Vector3(0, 3, -3), 20, 80));
+		panel.setFog(8, 20, Color.GRAY);
+		if (mode == Mode.DEPTH_BUFFER || mode == Mode.TEXTURED_DEPTH_BUFFER)
+			panel.enableDepthBuffer();
+		if (mode == Mode.SMOOTH)
+			panel.enableSmoothShading();
+		if (mode != Mode.TEXTURED && mode != Mode.TEXTURED_DEPTH_BUFFER)
+			panel.dissableTextures();
+
+		Mesh car = new Mesh(new File("res/car.obj"),
+				new File("res/carTexture.png"), null, Quaternion.IDENTITY, 1,
+				true);
+		Mesh suzanne = new Mesh(new File("res/suzanne.obj"), Color.ORANGE,
+				null, Quaternion.IDENTITY, 1.5, true);
+		Mesh plane = new Mesh(new File("res/lowPolyPlane1.obj"), Color.GRAY,
+				null, Quaternion.IDENTITY, 0.5, true);
+		panel.addGameObject(new GameObject("car", car, Vector3.ZERO));
+		panel.addGameObject(
+				new GameObject("suzanne", suzanne, new Vector3(2, 0.5, 1)));
+		panel.addGameObject(
+				new GameObject("plane", plane, new Vector3(-2, 1, -1)));
+		return panel;
+	}
+
+	private static int countDrawnPixels(int[] pixels) {
+		int background = Color.BLACK.getRGB() & 0xFFFFFF;
+		int count = 0;
+		for (int pixel : pixels) {
+			if ((pixel & 0xFFFFFF) != background)
+				count++;
+		}
+		return count;
+	}
+
+	private static Method frameMethod(String name) throws Exception {
+		Method method = RenderingPanel.class.getDeclaredMethod(name);
+		method.setAccessible(true);
+		return method;
+	}
+}